@@ -10,6 +10,7 @@ import java.io.*;
 import java.applet.*;
 import java.awt.*;
 import java.awt.image.*;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
@@ -39,9 +40,20 @@ public class AppleDisplay implements Runnable {
 
 	private boolean isPrecalcRequested = true;
 	private boolean isRefreshRequested = true;
+
+	// Character rows rendered since the last repaint
+	private int repaintCharYStart = DISPLAY_CHAR_COUNT_Y;
+	private int repaintCharYEnd = 0;
 	
 	// Graphics interface variables
     private boolean[] graphicsDirty = new boolean[0x6000 >> 7];
+	private long[] graphicsDirtyPending;
+	private long[] frameDirty = new long[EmAppleII.GRAPHICS_DIRTY_SIZE];
+	private byte[] frameMemory = new byte[EmAppleII.FRAME_MEMORY_SIZE];
+	private int frameGraphicsMode;
+	private int[] frameLineModes = new int[EmAppleII.FRAME_LINES];
+	private boolean isFrameSplit;
+	private int[] splitLineBuffer = new int[DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X];
 	private int graphicsMode;
 
 	// Display
@@ -57,12 +69,36 @@ public class AppleDisplay implements Runnable {
 	private int[] displayImageBuffer;
 	private BufferedImage displayImagePaused;
 	private BufferedImage displayImageGlare;
+
+	// Rendered page cache (one image per displayed graphics mode, kept current by its own dirty bits)
+	private static final int PAGE_CACHE_SIZE = 4;
+	private static final int PAGE_NONE = -1;
+	private static final int PAGE_SPLIT = -2;
+	private BufferedImage[] pageImage = new BufferedImage[PAGE_CACHE_SIZE];
+	private int[][] pageImageBuffer = new int[PAGE_CACHE_SIZE][];
+	private long[][] pageDirty = new long[PAGE_CACHE_SIZE][EmAppleII.GRAPHICS_DIRTY_SIZE];
+	private int[] pageKey = new int[PAGE_CACHE_SIZE];
+	private int[] pageCharMap = new int[PAGE_CACHE_SIZE];
+	private long[] pageLastUsed = new long[PAGE_CACHE_SIZE];
+	private int pageIndex;
+	private long pageUseCount;
+	private long pageCacheHits;
+	private long pageCacheMisses;
 	
 	// Display scale
 	private float displayScale;
 	private int displayScaledSizeX;
 	private int displayScaledSizeY;	
 
+	// Scaled display (output sized copy of the shown page with glare composited in, painted 1:1)
+	private BufferedImage scaledImage;
+	private int[] scaledImageBuffer;
+	private int[] scaledGlare;
+	private BufferedImage scaledImagePaused;
+	private int[] scaledSourceX;
+	private int[] scaledSourceY;
+	private int[] scaledLineStart;
+
 	// Display palette
 	private int[] displayPalette;
 	private static final int[] displayPaletteGreen = {
@@ -89,11 +125,20 @@ public class AppleDisplay implements Runnable {
 	private static final int CHARMAP_ALT = 2;
 
 	private int[] charSet = new int[CHARSET_SIZE_X * CHARSET_CHAR_SIZE_Y];
+
+	// Charset characters laid out glyph by glyph, shared by all charmaps
+	private final int GLYPH_SIZE = DISPLAY_CHAR_SIZE_X * CHARSET_CHAR_SIZE_Y;
+	private int[] glyphs = new int[0x100 * GLYPH_SIZE];
 	private int[] charMap;
 	private int[][] charMaps = new int[3][0x100];
 	private long charMapFlashCycle = 0;
 	private boolean isCharMapFlash = false;
 
+	// Flashing cells of each text page block (main, and aux for 80 columns)
+	private boolean[] isFlashChar = new boolean[0x100];
+	private int[] textFlashCount = new int[(EmAppleII.MEM_MAIN_RAM2 + 0x400) >> 7];
+	private int[] textFlashCountAux = new int[(EmAppleII.MEM_MAIN_RAM2 + 0x400) >> 7];
+
 	private int[][] charMapLookup = {
 		{0xc0,0xa0,0x40,0x20,0x40,0x20,0x40,0x60},
 		{0xc0,0xa0,0xc0,0xa0,0x40,0x20,0x40,0x60},
@@ -111,6 +156,8 @@ public class AppleDisplay implements Runnable {
 	private int hiresWord[] = new int[8];
 	private int hiresWordNext[] = new int[8];
 	private int hiresLookup[] = new int[0x100];	// Bits: [NNccccPP] - Next, current, Previous bits
+	private static final int HIRES_SPAN_SIZE = 14;
+	private int hiresSpans[] = new int[0x2000 * HIRES_SPAN_SIZE];	// Bits: [pNCbbbbbbbbPP] - parity, Next, Carry, byte, Previous bits
 	private static final int hiresLookupColor[] = {
 		// Bits: [PPNNcccc] - Previous, Next, current bits => 4 pixel @ 4 bit color output
 // Color-bleeding algorithm
@@ -163,6 +210,11 @@ public class AppleDisplay implements Runnable {
 	private boolean isPaused = true;
 	private Thread thread;
 	private String threadError = null;
+
+	// Render workers (one band of character rows each, besides the display thread's own)
+	private static final int RENDER_WORKERS_MAX = 3;
+	private static final int RENDER_BAND_MIN_ROWS = 4;
+	private RenderWorker[] renderWorkers = new RenderWorker[0];
 	
 
 
@@ -181,6 +233,10 @@ public class AppleDisplay implements Runnable {
 			DISPLAY_SIZE_Y,
 			BufferedImage.TYPE_INT_RGB);
 		displayImageBuffer = ((DataBufferInt) displayImage.getRaster().getDataBuffer()).getData();
+		pageImage[0] = displayImage;
+		pageImageBuffer[0] = displayImageBuffer;
+		invalidatePages();
+		selectPage(PAGE_NONE);
 
 		// Load glare and pause images
 		try {
@@ -206,6 +262,13 @@ public class AppleDisplay implements Runnable {
 		setStatMode(false);
 	}
 
+	/**
+	 * Display without an applet to repaint (for rendering tests)
+	 */
+	AppleDisplay(EmAppleII apple) {
+		this(null, apple);
+	}
+
 	/**
 	 * Set scale
 	 */
@@ -284,9 +347,11 @@ public class AppleDisplay implements Runnable {
 				thread.join(1000);
 			} catch (InterruptedException e) {
 			}
-			applet.repaint();
+			stopRenderWorkers();
+			repaintApplet();
 		} else {
 			isRefreshRequested = true;
+			startRenderWorkers();
 			thread = new Thread(this);
 			thread.start();
 		}
@@ -305,6 +370,12 @@ public class AppleDisplay implements Runnable {
 	public void setGlare(boolean value) {
 		isGlare = value;
 		isRefreshRequested = true;
+
+		// No refresh thread while paused: recompose here
+		if (isPaused && (scaledImage != null)) {
+			renderScaledImage(0, DISPLAY_SIZE_Y);
+			repaintApplet();
+		}
     }
 	
 	/**
@@ -345,6 +416,7 @@ public class AppleDisplay implements Runnable {
 		// Return FPS
 		statInfo += " FPS=" + refreshRateCurrent + " [" + refreshDelayPerSecond + " ms/s]\n";
 		statInfo += " GM=" + graphicsMode + "\n";
+		statInfo += " PAGES=" + pageCacheHits + " hits " + pageCacheMisses + " misses\n";
 		if (threadError != null)
 			statInfo = statInfo.concat(threadError + "\n");
 
@@ -357,28 +429,18 @@ public class AppleDisplay implements Runnable {
 	 * @param	g		Graphics object
 	 */
     public void paint(Graphics g) {
-		if (displayImage != null)
-			g.drawImage(displayImage,
-				0, 0, displayScaledSizeX, displayScaledSizeY,
-				0, 0, DISPLAY_SIZE_X, DISPLAY_SIZE_Y,
-				applet);
+		BufferedImage image = scaledImage;
+
+		if (image != null)
+			g.drawImage(image, 0, 0, applet);
 
 		if (isStatMode) {
 			g.setColor(Color.black);
 			g.fillRect(0,0,256,128); 
 			drawStatInfo(g);
 		}
-		if ((displayImagePaused != null) && isPaused)
-			g.drawImage(displayImagePaused,
-				0, 0, displayScaledSizeX, displayScaledSizeY,
-				0, 0, DISPLAY_SIZE_X, DISPLAY_SIZE_Y,
-				applet);
-
-		if (isGlare && (displayImageGlare != null))
-			g.drawImage(displayImageGlare,
-				0, 0, displayScaledSizeX, displayScaledSizeY,
-				0, 0, DISPLAY_SIZE_X, DISPLAY_SIZE_Y,
-				applet);
+		if ((scaledImagePaused != null) && isPaused)
+			g.drawImage(scaledImagePaused, 0, 0, applet);
 	}
 
 	/**
@@ -410,6 +472,110 @@ public class AppleDisplay implements Runnable {
 	
 	
 	
+	/**
+	 * Start a render worker for each spare processor
+	 */
+	private void startRenderWorkers() {
+		int workerCount = Math.min(RENDER_WORKERS_MAX,
+			Runtime.getRuntime().availableProcessors() - 1);
+
+		renderWorkers = new RenderWorker[Math.max(workerCount, 0)];
+		for (int i = 0; i < renderWorkers.length; i++) {
+			renderWorkers[i] = new RenderWorker();
+			Thread workerThread = new Thread(renderWorkers[i]);
+			workerThread.setDaemon(true);
+			workerThread.start();
+		}
+	}
+
+	/**
+	 * Stop the render workers
+	 */
+	private void stopRenderWorkers() {
+		for (int i = 0; i < renderWorkers.length; i++)
+			renderWorkers[i].quit();
+		renderWorkers = new RenderWorker[0];
+	}
+
+	/**
+	 * Render worker: renders a band of character rows with its own hires scratch words
+	 */
+	private class RenderWorker implements Runnable {
+		private int[] hiresWord = new int[8];
+		private int[] hiresWordNext = new int[8];
+
+		private int graphicsMode;
+		private int screenCharYStart;
+		private int screenCharYEnd;
+		private boolean isRendering;
+		private boolean isQuit;
+		private RuntimeException renderError;
+
+		/**
+		 * Start rendering a band
+		 */
+		public synchronized void render(int graphicsMode, int screenCharYStart, int screenCharYEnd) {
+			this.graphicsMode = graphicsMode;
+			this.screenCharYStart = screenCharYStart;
+			this.screenCharYEnd = screenCharYEnd;
+			isRendering = true;
+			notifyAll();
+		}
+
+		/**
+		 * Wait until the band is rendered, rethrowing any failure in the caller's thread
+		 */
+		public synchronized void waitRendered() {
+			while (isRendering) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+				}
+			}
+
+			RuntimeException error = renderError;
+			renderError = null;
+			if (error != null)
+				throw error;
+		}
+
+		/**
+		 * Stop the worker once its band is rendered
+		 */
+		public synchronized void quit() {
+			isQuit = true;
+			notifyAll();
+		}
+
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					while (!isRendering && !isQuit) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+						}
+					}
+					if (!isRendering)
+						return;
+				}
+
+				RuntimeException error = null;
+				try {
+					renderRows(graphicsMode, screenCharYStart, screenCharYEnd, hiresWord, hiresWordNext);
+				} catch (RuntimeException e) {
+					error = e;
+				}
+
+				synchronized (this) {
+					renderError = error;
+					isRendering = false;
+					notifyAll();
+				}
+			}
+		}
+	}
+
 	/**
 	 * Paint stat info
 	 */
@@ -442,96 +608,462 @@ public class AppleDisplay implements Runnable {
 		if (isPrecalcRequested) {
 			isPrecalcRequested = false;
 			precalcDisplay();
+			invalidatePages();
 			graphicsMode = -1;
+			isCharsetUpdateRequested = true;
 		}
 
-		// Repaint if graphics mode changes
-		if (graphicsMode != apple.graphicsMode) {
-			graphicsMode = apple.graphicsMode;
-			isCharsetUpdateRequested = true;
-			isSetHiresDirtyRequested = true;
+		// Take the last emulated frame
+		int newGraphicsMode = apple.getFrame(frameMemory, frameDirty, frameLineModes);
+		if (newGraphicsMode != -1) {
+			frameGraphicsMode = newGraphicsMode;
+			isFrameSplit = isFrameSplit();
+
+			for (int i = 0; i < EmAppleII.GRAPHICS_DIRTY_SIZE; i++) {
+				for (int index = 0; index < PAGE_CACHE_SIZE; index++)
+					pageDirty[index][i] |= frameDirty[i];
+				frameDirty[i] = 0;
+			}
 		}
 
 		// Periodic refresh
+		boolean isFlashUpdateRequested = false;
 		if (charMapFlashCycle <= 0) {
 			charMapFlashCycle = (int) (refreshRate / 4 - 1);
 			isCharMapFlash = !isCharMapFlash;
-			isCharsetUpdateRequested = true;
+			isFlashUpdateRequested = true;
 		} else
 			charMapFlashCycle--;
 
-		// Some internal variables
+		// Mode changes between scanlines: redraw each run of scanlines in its mode
+		if (isFrameSplit) {
+			if ((newGraphicsMode != -1) || isCharsetUpdateRequested || isFlashUpdateRequested ||
+				(graphicsMode != -1)) {
+				selectPage(PAGE_SPLIT);
+				renderSplitFrame();
+				isRefreshRequested = true;
+			}
+			graphicsMode = -1;
+		} else {
+			// Show the cached page of a new graphics mode, repaint it if not cached
+			if (graphicsMode != frameGraphicsMode) {
+				graphicsMode = frameGraphicsMode;
+				if (!selectPage(getPageKey(graphicsMode))) {
+					isCharsetUpdateRequested = true;
+					isSetHiresDirtyRequested = true;
+				}
+				isRefreshRequested = true;
+			}
+
+			// A change between normal and flash char maps only redraws the flashing cells
+			int charMapIndex = getCharMap(graphicsMode);
+			setCharMap(charMapIndex);
+			isFlashUpdateRequested = false;
+			if (pageCharMap[pageIndex] != charMapIndex) {
+				if ((pageCharMap[pageIndex] == CHARMAP_ALT) || (charMapIndex == CHARMAP_ALT) ||
+					(pageCharMap[pageIndex] == -1))
+					isCharsetUpdateRequested = true;
+				else
+					isFlashUpdateRequested = true;
+			}
+
+			// Some internal variables
+			boolean isSomeText = ((graphicsMode & (EmAppleII.GR_TEXT | EmAppleII.GR_MIXMODE)) != 0);
+			boolean isSomeLores = ((graphicsMode & (EmAppleII.GR_TEXT | EmAppleII.GR_HIRES)) == 0);
+			boolean isSomeHires = ((graphicsMode & (EmAppleII.GR_TEXT | EmAppleII.GR_HIRES)) == EmAppleII.GR_HIRES);
+
+			boolean isPage2 = ((graphicsMode & (EmAppleII.GR_80STORE | EmAppleII.GR_PAGE2)) == EmAppleII.GR_PAGE2);
+
+			int baseAddressText = isPage2 ? EmAppleII.MEM_MAIN_RAM2 : EmAppleII.MEM_MAIN_TEXT;
+			int baseAddressHires = isPage2 ? EmAppleII.MEM_MAIN_RAM3 : EmAppleII.MEM_MAIN_HIRES;
+
+			// Other char map changes redraw the whole text buffer
+			if (isCharsetUpdateRequested) {
+				pageCharMap[pageIndex] = charMapIndex;
+
+				isSetDirtyRequested = true;
+			}
+			
+			// Refresh dirty buffers?
+			if (isSetDirtyRequested) {
+				if (isSomeText || isSomeLores)
+					setTextBufferDirty(baseAddressText);
+
+				if (isSomeHires) {
+					if (isSetHiresDirtyRequested)
+						setHiresBufferDirty(baseAddressHires);
+					else
+						isHiresBufferDirty(baseAddressHires);
+				}
+
+				isRenderRequested = true;
+			} else {
+				if ((isSomeText || isSomeLores) && isTextBufferDirty(baseAddressText))
+					isRenderRequested = true;
+
+				if (isSomeHires && isHiresBufferDirty(baseAddressHires))
+					isRenderRequested = true;
+
+				if (isFlashUpdateRequested) {
+					pageCharMap[pageIndex] = charMapIndex;
+
+					boolean isDoubleText = ((graphicsMode & EmAppleII.GR_80CHAR) != 0);
+					if (isSomeText && setFlashBufferDirty(baseAddressText, isDoubleText))
+						isRenderRequested = true;
+				}
+			}
+
+			// Draw
+			if (isRenderRequested)
+				renderGraphicsMode(graphicsMode, 0, DISPLAY_CHAR_COUNT_Y);
+		}
+
+		// Scale the whole display, or the rendered character rows
+		if (isRefreshRequested)
+			renderScaledImage(0, DISPLAY_SIZE_Y);
+		else if (repaintCharYStart < repaintCharYEnd)
+			renderScaledImage(repaintCharYStart * DISPLAY_CHAR_SIZE_Y,
+				repaintCharYEnd * DISPLAY_CHAR_SIZE_Y);
+
+		// Repaint the whole display, or the rendered character rows
+		if (isRefreshRequested || (isStatMode && (repaintCharYStart < repaintCharYEnd))) {
+			isRefreshRequested = false;
+			repaintApplet();
+		} else if (repaintCharYStart < repaintCharYEnd) {
+			int repaintY = getScaledY(repaintCharYStart * DISPLAY_CHAR_SIZE_Y);
+			repaintApplet(repaintY, getScaledY(repaintCharYEnd * DISPLAY_CHAR_SIZE_Y) - repaintY);
+		}
+		repaintCharYStart = DISPLAY_CHAR_COUNT_Y;
+		repaintCharYEnd = 0;
+	}
+
+	/**
+	 * Request a repaint of the whole applet
+	 */
+	private void repaintApplet() {
+		if (applet != null)
+			applet.repaint();
+	}
+
+	/**
+	 * Request a repaint of some display rows
+	 */
+	private void repaintApplet(int y, int height) {
+		if (applet != null)
+			applet.repaint(0, y, displayScaledSizeX, height);
+	}
+
+	/**
+	 * Display Y coordinate of a scanline
+	 */
+	private int getScaledY(int y) {
+		return scaledLineStart[y];
+	}
+
+	/**
+	 * Scale scanlines of the display image into the scaled image
+	 */
+	private void renderScaledImage(int lineStart, int lineEnd) {
+		if (scaledImage == null)
+			return;
+
+		int scaledStart = getScaledY(lineStart);
+		int scaledEnd = getScaledY(lineEnd);
+		int scaledOffset = scaledStart * displayScaledSizeX;
+		int lastLine = -1;
+
+		for (int scaledY = scaledStart; scaledY < scaledEnd; scaledY++) {
+			int line = scaledSourceY[scaledY];
+
+			if (line == lastLine)
+				System.arraycopy(scaledImageBuffer, scaledOffset - displayScaledSizeX,
+					scaledImageBuffer, scaledOffset, displayScaledSizeX);
+			else if (displayScaledSizeX == DISPLAY_SIZE_X)
+				System.arraycopy(displayImageBuffer, line * DISPLAY_SIZE_X,
+					scaledImageBuffer, scaledOffset, DISPLAY_SIZE_X);
+			else {
+				int lineOffset = line * DISPLAY_SIZE_X;
+				for (int scaledX = 0; scaledX < displayScaledSizeX; scaledX++)
+					scaledImageBuffer[scaledOffset + scaledX] = displayImageBuffer[lineOffset + scaledSourceX[scaledX]];
+			}
+
+			lastLine = line;
+			scaledOffset += displayScaledSizeX;
+		}
+
+		if (isGlare && (scaledGlare != null))
+			renderScaledGlare(scaledStart * displayScaledSizeX, scaledOffset);
+	}
+
+	/**
+	 * Composite glare over scaled pixels (source over, rounded like drawImage)
+	 */
+	private void renderScaledGlare(int offsetStart, int offsetEnd) {
+		for (int offset = offsetStart; offset < offsetEnd; offset++) {
+			int glare = scaledGlare[offset];
+			int inverseAlpha = glare >>> 24;
+
+			if (inverseAlpha != 0xff) {
+				int pixel = scaledImageBuffer[offset];
+				int redBlue = (pixel & 0xff00ff) * inverseAlpha + 0x7f007f;
+				int green = (pixel & 0x00ff00) * inverseAlpha + 0x007f00;
+
+				// Divide each channel by 255
+				redBlue = ((redBlue + 0x010001 + ((redBlue >> 8) & 0xff00ff)) >> 8) & 0xff00ff;
+				green = ((green + 0x000100 + ((green >> 8) & 0x00ff00)) >> 8) & 0x00ff00;
+				scaledImageBuffer[offset] = (redBlue | green) + (glare & 0xffffff);
+			}
+		}
+	}
+
+	/**
+	 * Does the graphics mode change between scanlines of the frame?
+	 */
+	private boolean isFrameSplit() {
+		for (int line = 1; line < EmAppleII.FRAME_LINES; line++)
+			if (frameLineModes[line] != frameLineModes[0])
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Render a frame run by run of scanlines with the same graphics mode
+	 */
+	private void renderSplitFrame() {
+		Arrays.fill(graphicsDirty, true);
+		Arrays.fill(graphicsDirtyPending, 0);
+
+		int lineStart = 0;
+		while (lineStart < EmAppleII.FRAME_LINES) {
+			int mode = frameLineModes[lineStart];
+			int lineEnd = lineStart + 1;
+			while ((lineEnd < EmAppleII.FRAME_LINES) && (frameLineModes[lineEnd] == mode))
+				lineEnd++;
+
+			// Keep the previous runs' scanlines of the first character row
+			int savedOffset = (lineStart & ~(DISPLAY_CHAR_SIZE_Y - 1)) * DISPLAY_SIZE_X;
+			int savedSize = (lineStart & (DISPLAY_CHAR_SIZE_Y - 1)) * DISPLAY_SIZE_X;
+			System.arraycopy(displayImageBuffer, savedOffset, splitLineBuffer, 0, savedSize);
+
+			updateCharMap(mode);
+			renderGraphicsMode(mode, lineStart / DISPLAY_CHAR_SIZE_Y,
+				(lineEnd + DISPLAY_CHAR_SIZE_Y - 1) / DISPLAY_CHAR_SIZE_Y);
+
+			System.arraycopy(splitLineBuffer, 0, displayImageBuffer, savedOffset, savedSize);
+
+			lineStart = lineEnd;
+		}
+	}
+
+	/**
+	 * Set char map for a graphics mode
+	 */
+	private void updateCharMap(int graphicsMode) {
+		setCharMap(getCharMap(graphicsMode));
+	}
+
+	/**
+	 * Char map of a graphics mode
+	 */
+	private int getCharMap(int graphicsMode) {
+		if ((graphicsMode & EmAppleII.GR_ALTCHAR) != 0)
+			return CHARMAP_ALT;
+		else if (isCharMapFlash)
+			return CHARMAP_FLASH;
+		else
+			return CHARMAP_NORMAL;
+	}
+
+	/**
+	 * Page cache key of a graphics mode (the bits that change the rendered image)
+	 */
+	private int getPageKey(int graphicsMode) {
+		int key = graphicsMode & (EmAppleII.GR_TEXT | EmAppleII.GR_MIXMODE | EmAppleII.GR_HIRES |
+			EmAppleII.GR_80CHAR | EmAppleII.GR_ALTCHAR | EmAppleII.GR_DHIRES);
+		if ((graphicsMode & (EmAppleII.GR_80STORE | EmAppleII.GR_PAGE2)) == EmAppleII.GR_PAGE2)
+			key |= EmAppleII.GR_PAGE2;
+
+		return key;
+	}
+
+	/**
+	 * Show the cached page of a key, or reuse the least recently used one
+	 *
+	 * @return	true if the page was cached
+	 */
+	private boolean selectPage(int key) {
+		boolean isCached = false;
+		int index = 0;
+
+		for (int i = 0; i < PAGE_CACHE_SIZE; i++) {
+			if (pageKey[i] == key) {
+				index = i;
+				isCached = true;
+				break;
+			}
+			if (pageLastUsed[i] < pageLastUsed[index])
+				index = i;
+		}
+
+		if (isCached)
+			pageCacheHits++;
+		else {
+			pageCacheMisses++;
+			if (pageImage[index] == null) {
+				pageImage[index] = new BufferedImage(
+					DISPLAY_SIZE_X,
+					DISPLAY_SIZE_Y,
+					BufferedImage.TYPE_INT_RGB);
+				pageImageBuffer[index] = ((DataBufferInt) pageImage[index].getRaster().getDataBuffer()).getData();
+			}
+			pageKey[index] = key;
+			pageCharMap[index] = -1;
+			Arrays.fill(pageDirty[index], 0);
+		}
+
+		pageIndex = index;
+		pageLastUsed[index] = ++pageUseCount;
+		displayImage = pageImage[index];
+		displayImageBuffer = pageImageBuffer[index];
+		graphicsDirtyPending = pageDirty[index];
+
+		return isCached;
+	}
+
+	/**
+	 * Drop all cached pages (their rendering is out of date)
+	 */
+	private void invalidatePages() {
+		Arrays.fill(pageKey, PAGE_NONE);
+	}
+
+	/**
+	 * Render the dirty character rows between screenCharYStart and screenCharYEnd in a graphics mode,
+	 * in bands of about the same number of dirty rows on the render workers
+	 */
+	private void renderGraphicsMode(int graphicsMode, int screenCharYStart, int screenCharYEnd) {
+		RenderWorker[] workers = renderWorkers;
+
+		int dirtyRows = 0;
+		for (int screenCharY = screenCharYStart; screenCharY < screenCharYEnd; screenCharY++) {
+			if (isRowDirty(graphicsMode, screenCharY)) {
+				dirtyRows++;
+				repaintCharYStart = Math.min(repaintCharYStart, screenCharY);
+				repaintCharYEnd = Math.max(repaintCharYEnd, screenCharY + 1);
+			}
+		}
+
+		int bandCount = Math.min(workers.length + 1, dirtyRows / RENDER_BAND_MIN_ROWS);
+		if (bandCount <= 1) {
+			renderRows(graphicsMode, screenCharYStart, screenCharYEnd, hiresWord, hiresWordNext);
+			return;
+		}
+
+		// Workers take the first bands, this thread the last one
+		int bandStart = screenCharYStart;
+		int bandDirtyRows = 0;
+		int band = 0;
+		for (int screenCharY = screenCharYStart; band < (bandCount - 1); screenCharY++) {
+			if (isRowDirty(graphicsMode, screenCharY))
+				bandDirtyRows++;
+			if ((bandDirtyRows * bandCount) >= (dirtyRows * (band + 1))) {
+				workers[band].render(graphicsMode, bandStart, screenCharY + 1);
+				bandStart = screenCharY + 1;
+				band++;
+			}
+		}
+		// Every band is finished before a failure in any of them propagates
+		RuntimeException error = null;
+		try {
+			renderRows(graphicsMode, bandStart, screenCharYEnd, hiresWord, hiresWordNext);
+		} catch (RuntimeException e) {
+			error = e;
+		}
+		for (band = 0; band < (bandCount - 1); band++) {
+			try {
+				workers[band].waitRendered();
+			} catch (RuntimeException e) {
+				if (error == null)
+					error = e;
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Is a character row dirty in a graphics mode?
+	 */
+	private boolean isRowDirty(int graphicsMode, int screenCharY) {
+		boolean isTextRow = ((graphicsMode & EmAppleII.GR_TEXT) != 0) ||
+			(((graphicsMode & EmAppleII.GR_MIXMODE) != 0) && (screenCharY >= 20));
+		boolean isPage2 = ((graphicsMode & (EmAppleII.GR_80STORE | EmAppleII.GR_PAGE2)) == EmAppleII.GR_PAGE2);
+
+		int baseAddress;
+		if (isTextRow || ((graphicsMode & EmAppleII.GR_HIRES) == 0))
+			baseAddress = isPage2 ? EmAppleII.MEM_MAIN_RAM2 : EmAppleII.MEM_MAIN_TEXT;
+		else
+			baseAddress = isPage2 ? EmAppleII.MEM_MAIN_RAM3 : EmAppleII.MEM_MAIN_HIRES;
+
+		return graphicsDirty[(baseAddress + textLineAddress[screenCharY]) >> 7];
+	}
+
+	/**
+	 * Render the dirty character rows between screenCharYStart and screenCharYEnd in a graphics mode,
+	 * with the given hires scratch words
+	 */
+	private void renderRows(int graphicsMode, int screenCharYStart, int screenCharYEnd,
+		int[] hiresWord, int[] hiresWordNext) {
 		boolean isSomeText = ((graphicsMode & (EmAppleII.GR_TEXT | EmAppleII.GR_MIXMODE)) != 0);
 		boolean isSomeLores = ((graphicsMode & (EmAppleII.GR_TEXT | EmAppleII.GR_HIRES)) == 0);
 		boolean isSomeHires = ((graphicsMode & (EmAppleII.GR_TEXT | EmAppleII.GR_HIRES)) == EmAppleII.GR_HIRES);
 
 		boolean isMixedMode = ((graphicsMode & (EmAppleII.GR_TEXT | EmAppleII.GR_MIXMODE)) == EmAppleII.GR_MIXMODE);
 		boolean isPage2 = ((graphicsMode & (EmAppleII.GR_80STORE | EmAppleII.GR_PAGE2)) == EmAppleII.GR_PAGE2);
-		boolean isAltChar = ((graphicsMode & EmAppleII.GR_ALTCHAR) != 0);
 		boolean isDoubleTextMode = ((graphicsMode & EmAppleII.GR_80CHAR) == EmAppleII.GR_80CHAR);
 		boolean isDoubleGraphicsMode = ((graphicsMode & (EmAppleII.GR_80CHAR | EmAppleII.GR_DHIRES)) == (EmAppleII.GR_80CHAR | EmAppleII.GR_DHIRES));
 
 		int baseAddressText = isPage2 ? EmAppleII.MEM_MAIN_RAM2 : EmAppleII.MEM_MAIN_TEXT;
 		int baseAddressHires = isPage2 ? EmAppleII.MEM_MAIN_RAM3 : EmAppleII.MEM_MAIN_HIRES;
 
-		// Set char map
-		if (isCharsetUpdateRequested) {
-			if (isAltChar)
-				setCharMap(CHARMAP_ALT);
-			else if (isCharMapFlash)
-				setCharMap(CHARMAP_FLASH);
-			else
-				setCharMap(CHARMAP_NORMAL);
+		// Text rows are 20-23 in mixed mode, graphics rows the others
+		int textStart = Math.max(screenCharYStart, isMixedMode ? 20 : 0);
+		int graphicsEnd = Math.min(screenCharYEnd, isMixedMode ? 20 : 24);
 
-			isSetDirtyRequested = true;
-			isRefreshRequested = true;
+		if (isSomeText && (textStart < screenCharYEnd)) {
+			if (isDoubleTextMode)
+				renderDoubleText(baseAddressText, textStart, screenCharYEnd);
+			else
+				renderText(baseAddressText, textStart, screenCharYEnd);
 		}
 		
-		// Refresh dirty buffers?
-		if (isSetDirtyRequested) {
-			if (isSomeText || isSomeLores)
-				setTextBufferDirty(baseAddressText);
-
-			if (isSetHiresDirtyRequested && isSomeHires)
-				setHiresBufferDirty(baseAddressHires);
-
-			isRenderRequested = true;
-		} else {
-			if ((isSomeText || isSomeLores) && isTextBufferDirty(baseAddressText))
-				isRenderRequested = true;
+		if (screenCharYStart >= graphicsEnd)
+			return;
 
-			if (isSomeHires && isHiresBufferDirty(baseAddressHires))
-				isRenderRequested = true;
+		if (isSomeHires) {
+			if (isDoubleGraphicsMode)
+				renderDoubleHires(baseAddressHires, screenCharYStart, graphicsEnd,
+					hiresWord, hiresWordNext);
+			else
+				renderHires(baseAddressHires, screenCharYStart, graphicsEnd);
+		} else if (isSomeLores) {
+			if (isDoubleGraphicsMode)
+				renderDoubleLores(baseAddressText, screenCharYStart, graphicsEnd);
+			else
+				renderLores(baseAddressText, screenCharYStart, graphicsEnd);
 		}
+	}
 
-		// Draw
-		if (isRenderRequested) {
-			if (isSomeText) {
-				if (isDoubleTextMode)
-					renderDoubleText(baseAddressText, isMixedMode);
-				else
-					renderText(baseAddressText, isMixedMode);
-			}
-			
-			if (isSomeHires) {
-				if (isDoubleGraphicsMode)
-					renderDoubleHires(baseAddressHires, isMixedMode);
-				else
-					renderHires(baseAddressHires, isMixedMode);
-			} else if (isSomeLores) {
-				if (isDoubleGraphicsMode)
-					renderDoubleLores(baseAddressText, isMixedMode);
-				else
-					renderLores(baseAddressText, isMixedMode);
-			}
-
-			isRefreshRequested = true;
-		}
+	/**
+	 * Read and clear a pending dirty block
+	 */
+	private boolean isBlockDirty(int block) {
+		long mask = (1L << block);
+		boolean isDirty = ((graphicsDirtyPending[block >> 6] & mask) != 0);
+		graphicsDirtyPending[block >> 6] &= ~mask;
 
-		if (isRefreshRequested) {
-			isRefreshRequested = false;
-			applet.repaint();
-		}
+		return isDirty;
 	}
 
 	/**
@@ -543,8 +1075,48 @@ public class AppleDisplay implements Runnable {
 		int addressEnd = addressStart + 8;
 		for (int address = addressStart; address < addressEnd; address++) {
 			graphicsDirty[address] = true;
-			apple.graphicsDirty[address] = false;
+			isBlockDirty(address);
+			updateTextFlashCount(address);
+		}
+	}
+
+	/**
+	 * Set the text buffer blocks with flashing cells dirty
+	 *
+	 * @return	true if any block has flashing cells
+	 */
+	private boolean setFlashBufferDirty(int baseAddress, boolean isDoubleText) {
+		boolean isDirty = false;
+
+		int addressStart = baseAddress >> 7;
+		int addressEnd = addressStart + 8;
+		for (int address = addressStart; address < addressEnd; address++) {
+			if ((textFlashCount[address] != 0) ||
+				(isDoubleText && (textFlashCountAux[address] != 0))) {
+				graphicsDirty[address] = true;
+				isDirty = true;
+			}
+		}
+
+		return isDirty;
+	}
+
+	/**
+	 * Count the flashing cells of a text buffer block (the screen holes
+	 * at $78-$7F are never displayed)
+	 */
+	private void updateTextFlashCount(int block) {
+		int address = block << 7;
+		int count = 0;
+		int countAux = 0;
+		for (int offset = 0; offset < 0x78; offset++) {
+			if (isFlashChar[frameMemory[address + offset] & 0xff])
+				count++;
+			if (isFlashChar[frameMemory[address + 0x10000 + offset] & 0xff])
+				countAux++;
 		}
+		textFlashCount[block] = count;
+		textFlashCountAux[block] = countAux;
 	}
 
 	/**
@@ -556,14 +1128,8 @@ public class AppleDisplay implements Runnable {
 		int addressEnd = addressStart + 8;
 		for (int address = addressStart; address < addressEnd; address++) {
 			graphicsDirty[address] = true;
-			apple.graphicsDirty[address + (0x0000 >> 7)] = false;
-			apple.graphicsDirty[address + (0x0400 >> 7)] = false;
-			apple.graphicsDirty[address + (0x0800 >> 7)] = false;
-			apple.graphicsDirty[address + (0x0c00 >> 7)] = false;
-			apple.graphicsDirty[address + (0x1000 >> 7)] = false;
-			apple.graphicsDirty[address + (0x1400 >> 7)] = false;
-			apple.graphicsDirty[address + (0x1800 >> 7)] = false;
-			apple.graphicsDirty[address + (0x1c00 >> 7)] = false;
+			for (int block = address; block < (address + (0x2000 >> 7)); block += (0x0400 >> 7))
+				isBlockDirty(block);
 		}
 	}
 
@@ -577,10 +1143,11 @@ public class AppleDisplay implements Runnable {
 		int addressStart = baseAddress >> 7;
 		int addressEnd = addressStart + 8;
 		for (int address = addressStart; address < addressEnd; address++) {
-			graphicsDirty[address] = apple.graphicsDirty[address];
-			apple.graphicsDirty[address] = false;
-			if (graphicsDirty[address])
+			graphicsDirty[address] = isBlockDirty(address);
+			if (graphicsDirty[address]) {
+				updateTextFlashCount(address);
 				isDirty = true;
+			}
 		}
 		
 		return isDirty;
@@ -596,23 +1163,10 @@ public class AppleDisplay implements Runnable {
 		int addressStart = baseAddress >> 7;
 		int addressEnd = addressStart + 8;
 		for (int address = addressStart; address < addressEnd; address++) {
-			graphicsDirty[address] =
-				apple.graphicsDirty[address + (0x0000 >> 7)] || 
-				apple.graphicsDirty[address + (0x0400 >> 7)] ||
-				apple.graphicsDirty[address + (0x0800 >> 7)] || 
-				apple.graphicsDirty[address + (0x0c00 >> 7)] || 
-				apple.graphicsDirty[address + (0x1000 >> 7)] || 
-				apple.graphicsDirty[address + (0x1400 >> 7)] ||
-				apple.graphicsDirty[address + (0x1800 >> 7)] || 
-				apple.graphicsDirty[address + (0x1c00 >> 7)];
-			apple.graphicsDirty[address + (0x0000 >> 7)] = false;
-			apple.graphicsDirty[address + (0x0400 >> 7)] = false;
-			apple.graphicsDirty[address + (0x0800 >> 7)] = false;
-			apple.graphicsDirty[address + (0x0c00 >> 7)] = false;
-			apple.graphicsDirty[address + (0x1000 >> 7)] = false;
-			apple.graphicsDirty[address + (0x1400 >> 7)] = false;
-			apple.graphicsDirty[address + (0x1800 >> 7)] = false;
-			apple.graphicsDirty[address + (0x1c00 >> 7)] = false;
+			graphicsDirty[address] = false;
+			for (int block = address; block < (address + (0x2000 >> 7)); block += (0x0400 >> 7))
+				if (isBlockDirty(block))
+					graphicsDirty[address] = true;
 			if (graphicsDirty[address])
 				isDirty = true;
 		}
@@ -622,6 +1176,90 @@ public class AppleDisplay implements Runnable {
 	
 
 
+	/**
+	 * Scaled image precalculation (nearest neighbour source pixels, overlays at scaled size)
+	 */
+	private void precalcScaledImage() {
+		if ((scaledSourceY != null) &&
+			(scaledSourceX.length == displayScaledSizeX) &&
+			(scaledSourceY.length == displayScaledSizeY))
+			return;
+
+		// Source pixel of each scaled pixel, sampled at pixel centres
+		scaledSourceX = new int[displayScaledSizeX];
+		for (int scaledX = 0; scaledX < displayScaledSizeX; scaledX++)
+			scaledSourceX[scaledX] = (2 * scaledX + 1) * DISPLAY_SIZE_X / (2 * displayScaledSizeX);
+		scaledSourceY = new int[displayScaledSizeY];
+		for (int scaledY = 0; scaledY < displayScaledSizeY; scaledY++)
+			scaledSourceY[scaledY] = (2 * scaledY + 1) * DISPLAY_SIZE_Y / (2 * displayScaledSizeY);
+
+		// First scaled line showing each scanline or a later one
+		scaledLineStart = new int[DISPLAY_SIZE_Y + 1];
+		int scaledY = 0;
+		for (int y = 0; y <= DISPLAY_SIZE_Y; y++) {
+			while ((scaledY < displayScaledSizeY) && (scaledSourceY[scaledY] < y))
+				scaledY++;
+			scaledLineStart[y] = scaledY;
+		}
+
+		if ((displayScaledSizeX <= 0) || (displayScaledSizeY <= 0)) {
+			scaledImage = null;
+			return;
+		}
+
+		precalcScaledGlare();
+		scaledImagePaused = getScaledOverlay(displayImagePaused);
+
+		BufferedImage image = new BufferedImage(
+			displayScaledSizeX,
+			displayScaledSizeY,
+			BufferedImage.TYPE_INT_RGB);
+		scaledImageBuffer = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		scaledImage = image;
+		isRefreshRequested = true;
+	}
+
+	/**
+	 * Glare precalculation (premultiplied color, inverse alpha in the top byte)
+	 */
+	private void precalcScaledGlare() {
+		BufferedImage image = getScaledOverlay(displayImageGlare);
+		if (image == null) {
+			scaledGlare = null;
+			return;
+		}
+
+		int[] imageBuffer = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		scaledGlare = new int[imageBuffer.length];
+		for (int offset = 0; offset < imageBuffer.length; offset++) {
+			int color = imageBuffer[offset];
+			int alpha = color >>> 24;
+
+			scaledGlare[offset] = ((0xff - alpha) << 24) |
+				((((color >> 16) & 0xff) * alpha + 0x7f) / 0xff << 16) |
+				((((color >> 8) & 0xff) * alpha + 0x7f) / 0xff << 8) |
+				(((color & 0xff) * alpha + 0x7f) / 0xff);
+		}
+	}
+
+	/**
+	 * Overlay image scaled to the display size
+	 */
+	private BufferedImage getScaledOverlay(BufferedImage overlay) {
+		if (overlay == null)
+			return null;
+
+		BufferedImage image = new BufferedImage(
+			displayScaledSizeX,
+			displayScaledSizeY,
+			BufferedImage.TYPE_INT_ARGB);
+		Graphics g = image.getGraphics();
+		g.drawImage(overlay, 0, 0, displayScaledSizeX, displayScaledSizeY, null);
+		g.dispose();
+
+		return image;
+	}
+
 	/**
 	 * Display precalculation
 	 */
@@ -629,6 +1267,7 @@ public class AppleDisplay implements Runnable {
 		// Display scaled size
 		displayScaledSizeX = (int) (DISPLAY_SIZE_X * displayScale / 2);
 		displayScaledSizeY = (int) (DISPLAY_SIZE_Y * displayScale);
+		precalcScaledImage();
 
 		// Prepare display palette
 		setDisplayPalette();
@@ -638,6 +1277,7 @@ public class AppleDisplay implements Runnable {
 
 		// Prepare hires graphics
 		precalcHiresLookup();
+		precalcHiresSpans();
 	}
 
 	/**
@@ -676,6 +1316,20 @@ public class AppleDisplay implements Runnable {
 		// Colorize
 		for(charSetOffset = 0; charSetOffset < (CHARSET_SIZE_X * CHARSET_SIZE_Y); charSetOffset++)
 			charSet[charSetOffset] &= (displayPalette[0xf] | 0xff000000);
+
+		precalcGlyphs();
+	}
+
+	/**
+	 * Precalculate glyph scanlines from charset
+	 */
+	private void precalcGlyphs() {
+		int glyphOffset = 0;
+
+		for (int glyph = 0; glyph < 0x100; glyph++)
+			for (int line = 0; line < CHARSET_CHAR_SIZE_Y; line++)
+				for (int pixel = 0; pixel < DISPLAY_CHAR_SIZE_X; pixel++)
+					glyphs[glyphOffset++] = charSet[line * CHARSET_SIZE_X + glyph * CHARSET_CHAR_SIZE_X + pixel];
 	}
 
 	/**
@@ -686,6 +1340,8 @@ public class AppleDisplay implements Runnable {
 			for(int character = 0; character < 0x100; character++)
 				charMaps[index][character] = charMapLookup[index][character >> 5] + (character & 0x1f);
 		}
+		for(int character = 0; character < 0x100; character++)
+			isFlashChar[character] = (charMaps[CHARMAP_NORMAL][character] != charMaps[CHARMAP_FLASH][character]);
 	}
 
 	/**
@@ -750,49 +1406,73 @@ public class AppleDisplay implements Runnable {
 	
 
 
+	/**
+	 * Precalculate hires spans: the 14 pixels of a byte from its previous two bits,
+	 * the half dot carried from the previous byte, its value and the next bit, for even
+	 * and odd byte columns (a pixel only depends on its two previous and next bits)
+	 */
+	private void precalcHiresSpans() {
+		for (int index = 0; index < 0x2000; index++) {
+			int phase = (index >> 11) & 0x2;
+			int previousBits = index & 0x3;
+			int value = (index >> 2) & 0xff;
+			int word = (hiresEvenOddToWord[value | ((previousBits & 0x2) << 7)] & 0x3fff) | ((index >> 10) & 0x1);
+			int bits = previousBits | (word << 2) | (((index >> 11) & 0x1) << 16);
+
+			for (int pixel = 0; pixel < HIRES_SPAN_SIZE; pixel++) {
+				int pixelPhase = (pixel + phase) & 0x3;
+				int window = ((bits << 2) >> (pixel - pixelPhase + 2)) & 0xff;
+				hiresSpans[index * HIRES_SPAN_SIZE + pixel] =
+					displayPalette[(hiresLookup[window] >> (pixelPhase << 2)) & 0xf];
+			}
+		}
+	}
+	
+
+
 	/**
 	 * Render text canvas
 	 */
 	private final void renderTextScanLine(int destOffset, int sourceOffset) {
-		displayImageBuffer[destOffset + 0] = displayImageBuffer[destOffset + 1] = charSet[sourceOffset];
-		displayImageBuffer[destOffset + 2] = displayImageBuffer[destOffset + 3] = charSet[sourceOffset + 1];
-		displayImageBuffer[destOffset + 4] = displayImageBuffer[destOffset + 5] = charSet[sourceOffset + 2];
-		displayImageBuffer[destOffset + 6] = displayImageBuffer[destOffset + 7] = charSet[sourceOffset + 3];
-		displayImageBuffer[destOffset + 8] = displayImageBuffer[destOffset + 9] = charSet[sourceOffset + 4];
-		displayImageBuffer[destOffset + 10] = displayImageBuffer[destOffset + 11] = charSet[sourceOffset + 5];
-		displayImageBuffer[destOffset + 12] = displayImageBuffer[destOffset + 13] = charSet[sourceOffset + 6];
+		displayImageBuffer[destOffset + 0] = displayImageBuffer[destOffset + 1] = glyphs[sourceOffset];
+		displayImageBuffer[destOffset + 2] = displayImageBuffer[destOffset + 3] = glyphs[sourceOffset + 1];
+		displayImageBuffer[destOffset + 4] = displayImageBuffer[destOffset + 5] = glyphs[sourceOffset + 2];
+		displayImageBuffer[destOffset + 6] = displayImageBuffer[destOffset + 7] = glyphs[sourceOffset + 3];
+		displayImageBuffer[destOffset + 8] = displayImageBuffer[destOffset + 9] = glyphs[sourceOffset + 4];
+		displayImageBuffer[destOffset + 10] = displayImageBuffer[destOffset + 11] = glyphs[sourceOffset + 5];
+		displayImageBuffer[destOffset + 12] = displayImageBuffer[destOffset + 13] = glyphs[sourceOffset + 6];
 	}
 	private final void renderTextCharacter(int destOffset, int sourceOffset) {
 		renderTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderTextScanLine(destOffset, sourceOffset);
 	}
-	private void renderText(int baseAddress, boolean isMixedMode) {
-		int screenCharY, screenCharYStart = isMixedMode ? 20 : 0;
+	private void renderText(int baseAddress, int screenCharYStart, int screenCharYEnd) {
+		int screenCharY;
 		int displayOffset;
 		int address, addressEnd, addressStart;
 		
 		displayOffset = screenCharYStart * DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X;
-		for (screenCharY = screenCharYStart; screenCharY < 24; screenCharY++) {
+		for (screenCharY = screenCharYStart; screenCharY < screenCharYEnd; screenCharY++) {
 			addressStart = baseAddress + textLineAddress[screenCharY];
 			
 			if (graphicsDirty[addressStart >> 7]) {
 				addressEnd = addressStart + 40;
 				
 				for (address = addressStart; address < addressEnd; address++) {
-					renderTextCharacter(displayOffset, charMap[apple.mem[address] & 0xff] << 3);
+					renderTextCharacter(displayOffset, charMap[frameMemory[address] & 0xff] * GLYPH_SIZE);
 					displayOffset += DISPLAY_CHAR_SIZE_X * 2;
 				}
 				displayOffset += (DISPLAY_CHAR_SIZE_Y - 1) * DISPLAY_SIZE_X;
@@ -805,47 +1485,47 @@ public class AppleDisplay implements Runnable {
 	 * Render double text canvas
 	 */
 	private final void renderDoubleTextScanLine(int destOffset, int sourceOffset) {
-		displayImageBuffer[destOffset + 0] = charSet[sourceOffset];
-		displayImageBuffer[destOffset + 1] = charSet[sourceOffset + 1];
-		displayImageBuffer[destOffset + 2] = charSet[sourceOffset + 2];
-		displayImageBuffer[destOffset + 3] = charSet[sourceOffset + 3];
-		displayImageBuffer[destOffset + 4] = charSet[sourceOffset + 4];
-		displayImageBuffer[destOffset + 5] = charSet[sourceOffset + 5];
-		displayImageBuffer[destOffset + 6] = charSet[sourceOffset + 6];
+		displayImageBuffer[destOffset + 0] = glyphs[sourceOffset];
+		displayImageBuffer[destOffset + 1] = glyphs[sourceOffset + 1];
+		displayImageBuffer[destOffset + 2] = glyphs[sourceOffset + 2];
+		displayImageBuffer[destOffset + 3] = glyphs[sourceOffset + 3];
+		displayImageBuffer[destOffset + 4] = glyphs[sourceOffset + 4];
+		displayImageBuffer[destOffset + 5] = glyphs[sourceOffset + 5];
+		displayImageBuffer[destOffset + 6] = glyphs[sourceOffset + 6];
 	}
 	private final void renderDoubleTextCharacter(int destOffset, int sourceOffset) {
 		renderDoubleTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderDoubleTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderDoubleTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderDoubleTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderDoubleTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderDoubleTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderDoubleTextScanLine(destOffset, sourceOffset);
-		destOffset += DISPLAY_SIZE_X; sourceOffset += CHARSET_SIZE_X;
+		destOffset += DISPLAY_SIZE_X; sourceOffset += DISPLAY_CHAR_SIZE_X;
 		renderDoubleTextScanLine(destOffset, sourceOffset);
 	}
-	private void renderDoubleText(int baseAddress, boolean isMixedMode) {
-		int screenCharY, screenCharYStart = isMixedMode ? 20 : 0;
+	private void renderDoubleText(int baseAddress, int screenCharYStart, int screenCharYEnd) {
+		int screenCharY;
 		int displayOffset;
 		int address, addressEnd, addressStart;
 		
 		displayOffset = screenCharYStart * DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X;
-		for (screenCharY = screenCharYStart; screenCharY < 24; screenCharY++) {
+		for (screenCharY = screenCharYStart; screenCharY < screenCharYEnd; screenCharY++) {
 			addressStart = baseAddress + textLineAddress[screenCharY];
 			
 			if (graphicsDirty[addressStart >> 7]) {
 				addressEnd = addressStart + 40;
 				
 				for (address = addressStart; address < addressEnd; address++) {
-					renderDoubleTextCharacter(displayOffset, charMap[apple.mem[address + 0x10000] & 0xff] << 3);
+					renderDoubleTextCharacter(displayOffset, charMap[frameMemory[address + 0x10000] & 0xff] * GLYPH_SIZE);
 					displayOffset += DISPLAY_CHAR_SIZE_X;
-					renderDoubleTextCharacter(displayOffset, charMap[apple.mem[address + 0x00000] & 0xff] << 3);
+					renderDoubleTextCharacter(displayOffset, charMap[frameMemory[address + 0x00000] & 0xff] * GLYPH_SIZE);
 					displayOffset += DISPLAY_CHAR_SIZE_X;
 				}
 				displayOffset += (DISPLAY_CHAR_SIZE_Y - 1) * DISPLAY_SIZE_X;
@@ -883,13 +1563,13 @@ public class AppleDisplay implements Runnable {
 		destOffset += DISPLAY_SIZE_X;
 		renderLoresScanLine(destOffset, colorBottom);
 	}
-	private void renderLores(int baseAddress, boolean isMixedMode) {
-		int screenCharY, screenCharYEnd = isMixedMode ? 20 : 24;
+	private void renderLores(int baseAddress, int screenCharYStart, int screenCharYEnd) {
+		int screenCharY;
 		int displayOffset;
 		int address, addressEnd, addressStart;
 		
-		displayOffset = 0;
-		for (screenCharY = 0; screenCharY < screenCharYEnd; screenCharY++) {
+		displayOffset = screenCharYStart * DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X;
+		for (screenCharY = screenCharYStart; screenCharY < screenCharYEnd; screenCharY++) {
 			addressStart = baseAddress + textLineAddress[screenCharY];
 			
 			if (graphicsDirty[addressStart >> 7]) {
@@ -897,12 +1577,12 @@ public class AppleDisplay implements Runnable {
 				
 				for (address = addressStart; address < addressEnd; address++) {
 					renderLoresBlock(displayOffset, 
-						displayPalette[apple.mem[address] & 0xf], 
-						displayPalette[(apple.mem[address] & 0xf0) >> 4]);
+						displayPalette[frameMemory[address] & 0xf], 
+						displayPalette[(frameMemory[address] & 0xf0) >> 4]);
 					displayOffset += DISPLAY_CHAR_SIZE_X;
 					renderLoresBlock(displayOffset, 
-						displayPalette[apple.mem[address] & 0xf], 
-						displayPalette[(apple.mem[address] & 0xf0) >> 4]);
+						displayPalette[frameMemory[address] & 0xf], 
+						displayPalette[(frameMemory[address] & 0xf0) >> 4]);
 					displayOffset += DISPLAY_CHAR_SIZE_X;
 				}
 				displayOffset += (DISPLAY_CHAR_SIZE_Y - 1) * DISPLAY_SIZE_X;
@@ -914,13 +1594,13 @@ public class AppleDisplay implements Runnable {
 	/**
 	 * Render double lores canvas
 	 */
-	private void renderDoubleLores(int baseAddress, boolean isMixedMode) {
-		int screenCharY, screenCharYEnd = isMixedMode ? 20 : 24;
+	private void renderDoubleLores(int baseAddress, int screenCharYStart, int screenCharYEnd) {
+		int screenCharY;
 		int displayOffset;
 		int address, addressEnd, addressStart;
 		
-		displayOffset = 0;
-		for (screenCharY = 0; screenCharY < screenCharYEnd; screenCharY++) {
+		displayOffset = screenCharYStart * DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X;
+		for (screenCharY = screenCharYStart; screenCharY < screenCharYEnd; screenCharY++) {
 			addressStart = baseAddress + textLineAddress[screenCharY];
 			
 			if (graphicsDirty[addressStart >> 7]) {
@@ -928,12 +1608,12 @@ public class AppleDisplay implements Runnable {
 				
 				for (address = addressStart; address < addressEnd; address++) {
 					renderLoresBlock(displayOffset, 
-						displayPalette[apple.mem[address + 0x10000] & 0xf], 
-						displayPalette[(apple.mem[address + 0x10000] & 0xf0) >> 4]);
+						displayPalette[frameMemory[address + 0x10000] & 0xf], 
+						displayPalette[(frameMemory[address + 0x10000] & 0xf0) >> 4]);
 					displayOffset += DISPLAY_CHAR_SIZE_X;
 					renderLoresBlock(displayOffset, 
-						displayPalette[apple.mem[address] & 0xf], 
-						displayPalette[(apple.mem[address] & 0xf0) >> 4]);
+						displayPalette[frameMemory[address] & 0xf], 
+						displayPalette[(frameMemory[address] & 0xf0) >> 4]);
 					displayOffset += DISPLAY_CHAR_SIZE_X;
 				}
 				displayOffset += (DISPLAY_CHAR_SIZE_Y - 1) * DISPLAY_SIZE_X;
@@ -943,98 +1623,45 @@ public class AppleDisplay implements Runnable {
 	}
 
 	/**
-	 * Render hires canvas
+	 * Render hires canvas, one precalculated span of 14 pixels per byte
 	 */
-	private final void renderHiresWord(int destOffset, int hiresNibble) {
-		displayImageBuffer[destOffset + 0] = displayPalette[(hiresNibble >> 0) & 0xf];
-		displayImageBuffer[destOffset + 1] = displayPalette[(hiresNibble >> 4) & 0xf];
-		displayImageBuffer[destOffset + 2] = displayPalette[(hiresNibble >> 8) & 0xf];
-		displayImageBuffer[destOffset + 3] = displayPalette[(hiresNibble >> 12) & 0xf];
-	}
-	private final void renderHiresScanLine(int destOffset, int hiresWord) {
-		renderHiresWord(destOffset + 0, hiresLookup[(hiresWord >> 0) & 0xff]);
-		renderHiresWord(destOffset + 4, hiresLookup[(hiresWord >> 4) & 0xff]);
-		renderHiresWord(destOffset + 8, hiresLookup[(hiresWord >> 8) & 0xff]);
-		renderHiresWord(destOffset + 12, hiresLookup[(hiresWord >> 12) & 0xff]);
-		renderHiresWord(destOffset + 16, hiresLookup[(hiresWord >> 16) & 0xff]);
-		renderHiresWord(destOffset + 20, hiresLookup[(hiresWord >> 20) & 0xff]);
-		renderHiresWord(destOffset + 24, hiresLookup[(hiresWord >> 24) & 0xff]);
-	}
-	private final void renderHiresBlock(int destOffset) {
-		renderHiresScanLine(destOffset, hiresWord[0]); destOffset += DISPLAY_SIZE_X;
-		renderHiresScanLine(destOffset, hiresWord[1]); destOffset += DISPLAY_SIZE_X;
-		renderHiresScanLine(destOffset, hiresWord[2]); destOffset += DISPLAY_SIZE_X;
-		renderHiresScanLine(destOffset, hiresWord[3]); destOffset += DISPLAY_SIZE_X;
-		renderHiresScanLine(destOffset, hiresWord[4]); destOffset += DISPLAY_SIZE_X;
-		renderHiresScanLine(destOffset, hiresWord[5]); destOffset += DISPLAY_SIZE_X;
-		renderHiresScanLine(destOffset, hiresWord[6]); destOffset += DISPLAY_SIZE_X;
-		renderHiresScanLine(destOffset, hiresWord[7]);
-	}
-	private final void resetHiresWords() {
-		hiresWord[0] = 0;
-		hiresWord[1] = 0;
-		hiresWord[2] = 0;
-		hiresWord[3] = 0;
-		hiresWord[4] = 0;
-		hiresWord[5] = 0;
-		hiresWord[6] = 0;
-		hiresWord[7] = 0;
-	}
-	private final void bufferHiresWords() {
-		hiresWord[0] = hiresWordNext[0];
-		hiresWord[1] = hiresWordNext[1];
-		hiresWord[2] = hiresWordNext[2];
-		hiresWord[3] = hiresWordNext[3];
-		hiresWord[4] = hiresWordNext[4];
-		hiresWord[5] = hiresWordNext[5];
-		hiresWord[6] = hiresWordNext[6];
-		hiresWord[7] = hiresWordNext[7];
-	}
-	private final void calcNextHiresWord(int hiresWordIndex, int byteEven, int byteOdd) {
-		hiresWordNext[hiresWordIndex] = hiresWord[hiresWordIndex] >> 28;
-		hiresWordNext[hiresWordIndex] |= 
-			hiresEvenOddToWord[(byteEven & 0xff) | ((hiresWordNext[hiresWordIndex] & 0x2) << 7)] << 2;
-		hiresWordNext[hiresWordIndex] |= 
-			hiresEvenOddToWord[(byteOdd & 0xff) | ((hiresWordNext[hiresWordIndex] & 0x8000) >> 7)] << 16;
-		hiresWord[hiresWordIndex] |= (hiresWordNext[hiresWordIndex] << 28);
+	private final void renderHiresScanLine(int destOffset, int address) {
+		int previousBits = 0;
+		int carryBit = 0;
+		int value = frameMemory[address] & 0xff;
+		int word = hiresEvenOddToWord[value];
+
+		for (int column = 0; column < 40; column++) {
+			int bits = (word & 0x3fff) | carryBit;
+			int nextCarryBit = (word >> 14) & 0x1;
+			int nextValue = (column < 39) ? (frameMemory[address + column + 1] & 0xff) : 0;
+			int nextWord = hiresEvenOddToWord[nextValue | ((bits & 0x2000) >> 5)];
+
+			int spanIndex = ((column & 1) << 12) | (((nextWord | nextCarryBit) & 0x1) << 11) |
+				(carryBit << 10) | (value << 2) | previousBits;
+			System.arraycopy(hiresSpans, spanIndex * HIRES_SPAN_SIZE, displayImageBuffer, destOffset, HIRES_SPAN_SIZE);
+			destOffset += HIRES_SPAN_SIZE;
+
+			previousBits = bits >> 12;
+			carryBit = nextCarryBit;
+			value = nextValue;
+			word = nextWord;
+		}
 	}
-	private final void calcNextHiresWords(int address) {
-		calcNextHiresWord(0, apple.mem[address + 0x00000], apple.mem[address + 0x00001]);
-		calcNextHiresWord(1, apple.mem[address + 0x00400], apple.mem[address + 0x00401]);
-		calcNextHiresWord(2, apple.mem[address + 0x00800], apple.mem[address + 0x00801]);
-		calcNextHiresWord(3, apple.mem[address + 0x00c00], apple.mem[address + 0x00c01]);
-		calcNextHiresWord(4, apple.mem[address + 0x01000], apple.mem[address + 0x01001]);
-		calcNextHiresWord(5, apple.mem[address + 0x01400], apple.mem[address + 0x01401]);
-		calcNextHiresWord(6, apple.mem[address + 0x01800], apple.mem[address + 0x01801]);
-		calcNextHiresWord(7, apple.mem[address + 0x01c00], apple.mem[address + 0x01c01]);
-	}
-	private void renderHires(int baseAddress, boolean isMixedMode) {
-		int screenCharY, screenCharYEnd = isMixedMode ? 20 : 24;
+	private void renderHires(int baseAddress, int screenCharYStart, int screenCharYEnd) {
+		int screenCharY;
 		int displayOffset;
-		int address, addressEnd, addressStart;
+		int addressStart;
 		
-		displayOffset = 0;
-		for (screenCharY = 0; screenCharY < screenCharYEnd; screenCharY++) {
+		displayOffset = screenCharYStart * DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X;
+		for (screenCharY = screenCharYStart; screenCharY < screenCharYEnd; screenCharY++) {
 			addressStart = baseAddress + textLineAddress[screenCharY];
 			
 			if (graphicsDirty[addressStart >> 7]) {
-				addressEnd = addressStart + 40;
-
-				resetHiresWords();
-				calcNextHiresWords(addressStart);
-				for (address = (addressStart + 2); address < addressEnd; address += 2) {
-					bufferHiresWords();
-					calcNextHiresWords(address);
-					renderHiresBlock(displayOffset);
-					displayOffset += DISPLAY_CHAR_SIZE_X * 4;
-				}
-				bufferHiresWords();
-				renderHiresBlock(displayOffset);
-				displayOffset += DISPLAY_CHAR_SIZE_X * 4;
-				
-				displayOffset += (DISPLAY_CHAR_SIZE_Y - 1) * DISPLAY_SIZE_X;
-			} else
-				displayOffset += DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X;
+				for (int line = 0; line < DISPLAY_CHAR_SIZE_Y; line++)
+					renderHiresScanLine(displayOffset + line * DISPLAY_SIZE_X, addressStart + (line << 10));
+			}
+			displayOffset += DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X;
 		}
 	}
 
@@ -1056,7 +1683,7 @@ public class AppleDisplay implements Runnable {
 		renderDoubleHiresWord(destOffset + 20, hiresLookup[(hiresWord >> 20) & 0xff]);
 		renderDoubleHiresWord(destOffset + 24, hiresLookup[(hiresWord >> 24) & 0xff]);
 	}
-	private final void renderDoubleHiresBlock(int destOffset) {
+	private final void renderDoubleHiresBlock(int destOffset, int[] hiresWord) {
 		renderDoubleHiresScanLine(destOffset, hiresWord[0]); destOffset += DISPLAY_SIZE_X;
 		renderDoubleHiresScanLine(destOffset, hiresWord[1]); destOffset += DISPLAY_SIZE_X;
 		renderDoubleHiresScanLine(destOffset, hiresWord[2]); destOffset += DISPLAY_SIZE_X;
@@ -1066,61 +1693,82 @@ public class AppleDisplay implements Runnable {
 		renderDoubleHiresScanLine(destOffset, hiresWord[6]); destOffset += DISPLAY_SIZE_X;
 		renderDoubleHiresScanLine(destOffset, hiresWord[7]);
 	}
-	private final void calcNextDoubleHiresWord(int hiresWordIndex, int byte1, int byte2, int byte3, int byte4) {
+	private final void resetHiresWords(int[] hiresWord) {
+		hiresWord[0] = 0;
+		hiresWord[1] = 0;
+		hiresWord[2] = 0;
+		hiresWord[3] = 0;
+		hiresWord[4] = 0;
+		hiresWord[5] = 0;
+		hiresWord[6] = 0;
+		hiresWord[7] = 0;
+	}
+	private final void bufferHiresWords(int[] hiresWord, int[] hiresWordNext) {
+		hiresWord[0] = hiresWordNext[0];
+		hiresWord[1] = hiresWordNext[1];
+		hiresWord[2] = hiresWordNext[2];
+		hiresWord[3] = hiresWordNext[3];
+		hiresWord[4] = hiresWordNext[4];
+		hiresWord[5] = hiresWordNext[5];
+		hiresWord[6] = hiresWordNext[6];
+		hiresWord[7] = hiresWordNext[7];
+	}
+	private final void calcNextDoubleHiresWord(int[] hiresWord, int[] hiresWordNext, int hiresWordIndex, int byte1, int byte2, int byte3, int byte4) {
 		hiresWordNext[hiresWordIndex] = (
 			((byte1 & 0x7f) << 2) | ((byte2 & 0x7f) << 9) | 
 			((byte3 & 0x7f) << 16) | ((byte4 & 0x7f) << 23) |
 			(hiresWord[hiresWordIndex] >> 28));
 		hiresWord[hiresWordIndex] |= (hiresWordNext[hiresWordIndex] << 28);
 	}
-	private final void calcNextDoubleHiresWords(int address) {
-		calcNextDoubleHiresWord(0, 
-			apple.mem[address + 0x10000], apple.mem[address + 0x00000], 
-			apple.mem[address + 0x10001], apple.mem[address + 0x00001]);
-		calcNextDoubleHiresWord(1,
-			apple.mem[address + 0x10400], apple.mem[address + 0x00400],
-			apple.mem[address + 0x10401], apple.mem[address + 0x00401]);
-		calcNextDoubleHiresWord(2,
-			apple.mem[address + 0x10800], apple.mem[address + 0x00800],
-			apple.mem[address + 0x10801], apple.mem[address + 0x00801]);
-		calcNextDoubleHiresWord(3,
-			apple.mem[address + 0x10c00], apple.mem[address + 0x00c00],
-			apple.mem[address + 0x10c01], apple.mem[address + 0x00c01]);
-		calcNextDoubleHiresWord(4,
-			apple.mem[address + 0x11000], apple.mem[address + 0x01000],
-			apple.mem[address + 0x11001], apple.mem[address + 0x01001]);
-		calcNextDoubleHiresWord(5,
-			apple.mem[address + 0x11400], apple.mem[address + 0x01400],
-			apple.mem[address + 0x11401], apple.mem[address + 0x01401]);
-		calcNextDoubleHiresWord(6,
-			apple.mem[address + 0x11800], apple.mem[address + 0x01800],
-			apple.mem[address + 0x11801], apple.mem[address + 0x01801]);
-		calcNextDoubleHiresWord(7,
-			apple.mem[address + 0x11c00], apple.mem[address + 0x01c00],
-			apple.mem[address + 0x11c01], apple.mem[address + 0x01c01]);
+	private final void calcNextDoubleHiresWords(int[] hiresWord, int[] hiresWordNext, int address) {
+		calcNextDoubleHiresWord(hiresWord, hiresWordNext, 0, 
+			frameMemory[address + 0x10000], frameMemory[address + 0x00000], 
+			frameMemory[address + 0x10001], frameMemory[address + 0x00001]);
+		calcNextDoubleHiresWord(hiresWord, hiresWordNext, 1,
+			frameMemory[address + 0x10400], frameMemory[address + 0x00400],
+			frameMemory[address + 0x10401], frameMemory[address + 0x00401]);
+		calcNextDoubleHiresWord(hiresWord, hiresWordNext, 2,
+			frameMemory[address + 0x10800], frameMemory[address + 0x00800],
+			frameMemory[address + 0x10801], frameMemory[address + 0x00801]);
+		calcNextDoubleHiresWord(hiresWord, hiresWordNext, 3,
+			frameMemory[address + 0x10c00], frameMemory[address + 0x00c00],
+			frameMemory[address + 0x10c01], frameMemory[address + 0x00c01]);
+		calcNextDoubleHiresWord(hiresWord, hiresWordNext, 4,
+			frameMemory[address + 0x11000], frameMemory[address + 0x01000],
+			frameMemory[address + 0x11001], frameMemory[address + 0x01001]);
+		calcNextDoubleHiresWord(hiresWord, hiresWordNext, 5,
+			frameMemory[address + 0x11400], frameMemory[address + 0x01400],
+			frameMemory[address + 0x11401], frameMemory[address + 0x01401]);
+		calcNextDoubleHiresWord(hiresWord, hiresWordNext, 6,
+			frameMemory[address + 0x11800], frameMemory[address + 0x01800],
+			frameMemory[address + 0x11801], frameMemory[address + 0x01801]);
+		calcNextDoubleHiresWord(hiresWord, hiresWordNext, 7,
+			frameMemory[address + 0x11c00], frameMemory[address + 0x01c00],
+			frameMemory[address + 0x11c01], frameMemory[address + 0x01c01]);
 	}	
-	private void renderDoubleHires(int baseAddress, boolean isMixedMode) {
-		int screenCharY, screenCharYEnd = isMixedMode ? 20 : 24;
+	private void renderDoubleHires(int baseAddress, int screenCharYStart, int screenCharYEnd,
+		int[] hiresWord, int[] hiresWordNext) {
+		int screenCharY;
 		int displayOffset;
 		int address, addressEnd, addressStart;
 		
-		displayOffset = 0;
-		for (screenCharY = 0; screenCharY < screenCharYEnd; screenCharY++) {
+		displayOffset = screenCharYStart * DISPLAY_CHAR_SIZE_Y * DISPLAY_SIZE_X;
+		for (screenCharY = screenCharYStart; screenCharY < screenCharYEnd; screenCharY++) {
 			addressStart = baseAddress + textLineAddress[screenCharY];
 			
 			if (graphicsDirty[addressStart >> 7]) {
 				addressEnd = addressStart + 40;
 
-				resetHiresWords();
-				calcNextDoubleHiresWords(addressStart);
+				resetHiresWords(hiresWord);
+				calcNextDoubleHiresWords(hiresWord, hiresWordNext, addressStart);
 				for (address = (addressStart + 2); address < addressEnd; address += 2) {
-					bufferHiresWords();
-					calcNextDoubleHiresWords(address);
-					renderDoubleHiresBlock(displayOffset);
+					bufferHiresWords(hiresWord, hiresWordNext);
+					calcNextDoubleHiresWords(hiresWord, hiresWordNext, address);
+					renderDoubleHiresBlock(displayOffset, hiresWord);
 					displayOffset += DISPLAY_CHAR_SIZE_X * 4;
 				}
-				bufferHiresWords();
-				renderDoubleHiresBlock(displayOffset);
+				bufferHiresWords(hiresWord, hiresWordNext);
+				renderDoubleHiresBlock(displayOffset, hiresWord);
 				displayOffset += DISPLAY_CHAR_SIZE_X * 4;
 				
 				displayOffset += (DISPLAY_CHAR_SIZE_Y - 1) * DISPLAY_SIZE_X;
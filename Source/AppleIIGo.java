@@ -153,6 +153,16 @@ public class AppleIIGo extends Applet implements KeyListener, ComponentListener,
 		apple = new EmAppleII();
 		loadRom(getAppletParameter("cpuRom", ""));
 		apple.setCpuSpeed(new Integer(getAppletParameter("cpuSpeed", "1000")).intValue());
+		apple.setCpuEngine(new Integer(getAppletParameter("cpuEngine", "0")).intValue());
+		apple.setInstructionFusion(getAppletParameter("cpuFusion", "false").equals("true"));
+		apple.setLoopAcceleration(getAppletParameter("cpuLoopAcceleration", "false").equals("true"));
+		apple.setFloatAcceleration(getAppletParameter("cpuFloatAcceleration", "false").equals("true"));
+		String[] cpuTraps = getAppletParameter("cpuTraps", "").split(",");
+		for (int i = 0; i < cpuTraps.length; i++)
+			if (cpuTraps[i].trim().length() > 0)
+				apple.setTrapEnabled(Integer.parseInt(cpuTraps[i].trim(), 16), true);
+		apple.setIdleSkip(getAppletParameter("cpuIdleSkip", "true").equals("true"));
+		apple.setWarp(getAppletParameter("cpuWarp", "false").equals("true"));
 		isCpuPaused = getAppletParameter("cpuPaused", "false").equals("true");
 		isCpuDebugEnabled = getAppletParameter("cpuDebugEnabled", "false").equals("true");
 		apple.setStepMode(getAppletParameter("cpuStepMode", "false").equals("true"));
@@ -277,6 +287,14 @@ public class AppleIIGo extends Applet implements KeyListener, ComponentListener,
 		resume();
 	}
 
+	/**
+ 	 * Set warp mode (emulate as fast as possible, without sound)
+	 */
+	public void setWarp(boolean value) {
+		debug("setWarp(" + value + ")");
+		apple.setWarp(value);
+	}
+
 	public void cycleDisk(int driveNumber)
 	{
 		debug("cycleDisk(" + driveNumber + ")");
@@ -657,6 +675,9 @@ public class AppleIIGo extends Applet implements KeyListener, ComponentListener,
 				apple.stepInstructions(128);
 			}
 			break;
+		case KeyEvent.VK_F9:
+			setWarp(!apple.getWarp());
+			break;
 		case KeyEvent.VK_CANCEL: // Pause/Break sends this (as Mac OS swallows Ctrl-F12)
 		case KeyEvent.VK_F12:
 			if (e.isControlDown())
@@ -24,7 +24,7 @@ public class AppleSpeaker implements Runnable {
 	private static final boolean SPEAKER_SIGNED = true;
 	private static final boolean SPEAKER_BIGENDIAN = false;
 	
-	private int clock, clockNextFlip, clockEnd;
+	private long clock, clockNextFlip, clockEnd;
 	private boolean isFlipsBufferEmpty = true;
 
 	private SourceDataLine line;
@@ -166,7 +166,7 @@ public class AppleSpeaker implements Runnable {
 	 * Speaker refresh
 	 */
 	public void refreshSpeaker() {
-		clockEnd = apple.clock;
+		clockEnd = apple.getClock();
 		int bytes;
 	
 		if (line == null)
@@ -177,24 +177,30 @@ public class AppleSpeaker implements Runnable {
 		}
 	}
 
+	/**
+	 * Speaker skip (drops the sound up to the current clock)
+	 */
+	public void skipSpeaker() {
+		clock = clockEnd = apple.getClock();
+		speakerFlipsPointer = apple.speakerFlipsPointer;
+		isFlipsBufferEmpty = true;
+	}
+
 	/**
 	 * Fill buffer
 	 */
 	private int fillBuffer() {
 		int value = speakerFlipStateToVolume[speakerFlipState];
-		int clockEndSample = clockEnd - speakerClocksPerSample;
+		long clockEndSample = clockEnd - speakerClocksPerSample;
 		int bufferPointer = 0;
 
 		initNextFlip();
 		while (bufferPointer < bufferSize) {
-			if (clockEndSample == clock)
-				break;
-
-			if (((clockEndSample - clock) & 0x7fffffff) > 0x3fffffff)
+			if (clockEndSample <= clock)
 				break;
 
 			// Find all flips on current sample
-			while (((clockNextFlip - clock) & 0x7fffffff) < speakerClocksPerSample) {
+			while ((clockNextFlip - clock) < speakerClocksPerSample) {
 				getNextFlip();
 				speakerFlipState = (speakerFlipState ^ 1);
 				value = speakerFlipStateToVolume[speakerFlipState];
@@ -226,7 +232,7 @@ public class AppleSpeaker implements Runnable {
 	 */
 	private void getNextFlip() {
 		if (speakerFlipsPointer == apple.speakerFlipsPointer) {
-			clockNextFlip = clock + 0x3fffffff;
+			clockNextFlip = Long.MAX_VALUE;
 			isFlipsBufferEmpty = true;
 		} else {
 			clockNextFlip = apple.speakerFlips[speakerFlipsPointer];
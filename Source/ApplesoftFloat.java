@@ -0,0 +1,794 @@
+/**
+ * AppleIIGo
+ * Native Applesoft floating point routines
+ * Released under the GPL
+ *
+ * Transcribed from the Microsoft 6502 BASIC floating point code, operating
+ * on the FAC/ARG zero page registers with the same rounding byte handling,
+ * register and flag results (but without the stack scratch bytes).
+ *
+ * Each entry point is checked against the ROM on its first calls (the ROM
+ * result is kept) and disables itself on any mismatch, so a different ROM
+ * or a patched one is never emulated wrongly.
+ *
+ * Timing: a native call is charged the mean clock count of the ROM runs
+ * measured while verifying. The ROM count depends on the operands (shift
+ * and normalize loops), so a single call may end early or late by up to
+ * the measured spread. The cycle-exact engine always runs the ROM.
+ */
+
+public class ApplesoftFloat implements CpuTrap {
+	// Entry points
+	public static final int FSUB = 0xe7a7;
+	public static final int FSUBT = 0xe7aa;
+	public static final int FADD = 0xe7be;
+	public static final int FADDT = 0xe7c1;
+	public static final int FMULT = 0xe97f;
+	public static final int FMULTT = 0xe982;
+	public static final int FDIV = 0xea66;
+	public static final int FDIVT = 0xea69;
+
+	public static final int[] ENTRIES = {
+		FSUB, FSUBT, FADD, FADDT, FMULT, FMULTT, FDIV, FDIVT
+	};
+
+	// Zero page
+	private static final int INDEX = 0x5e;
+	private static final int RESULT = 0x62;
+	private static final int ARGEXT = 0x92;
+	private static final int FAC = 0x9d;
+	private static final int FACSIGN = 0xa2;
+	private static final int SHIFTSIGNEXT = 0xa4;
+	private static final int ARG = 0xa5;
+	private static final int ARGSIGN = 0xaa;
+	private static final int SGNCPR = 0xab;
+	private static final int FACEXT = 0xac;
+
+	// ROM pages the routines live in
+	private static final int ROM_START_PAGE = 0xe7;
+	private static final int ROM_END_PAGE = 0xeb;
+
+	// Verification
+	private static final int VERIFY_CALLS = 64;
+	private static final int VERIFY_CLOCKS = 100000;
+
+	private EmAppleII apple;
+	private int entry;
+
+	private int[] romGeneration = new int[ROM_END_PAGE - ROM_START_PAGE + 1];
+	private int verifiedCalls;
+	private long verifiedClocks;
+	private int verifiedClocksMin;
+	private int verifiedClocksMax;
+	private boolean isMismatch;
+
+	// Emulated 6502 state
+	private byte[] zeroPage;
+	private int zeroPageOffset;
+	private byte[] zeroPageCopy = new byte[0x100];
+	private int a, x, y;
+	private boolean n, z, c, v;
+	private boolean isDeclined;
+
+	// Zero page bytes overwritten in guest memory (restored if declined)
+	private int[] savedAddresses = new int[0x100];
+	private byte[] savedValues = new byte[0x100];
+	private boolean[] isSaved = new boolean[0x100];
+	private int savedCount;
+
+	public ApplesoftFloat(EmAppleII apple, int entry) {
+		this.apple = apple;
+		this.entry = entry;
+	}
+
+	/**
+	 * Did this entry point disagree with the ROM?
+	 */
+	public boolean isMismatch() {
+		return isMismatch;
+	}
+
+	/**
+	 * Has this entry point been verified (so it runs natively)?
+	 */
+	public boolean isVerified() {
+		return (verifiedCalls >= VERIFY_CALLS) && isRomUnchanged();
+	}
+
+	/**
+	 * Clocks charged for a native call (mean of the verified ROM runs)
+	 */
+	public int getChargedClocks() {
+		return (verifiedCalls == 0) ? 0 : (int) (verifiedClocks / verifiedCalls);
+	}
+
+	/**
+	 * Fewest clocks a verified ROM run took
+	 */
+	public int getVerifiedClocksMin() {
+		return verifiedClocksMin;
+	}
+
+	/**
+	 * Most clocks a verified ROM run took
+	 */
+	public int getVerifiedClocksMax() {
+		return verifiedClocksMax;
+	}
+
+	/**
+	 * Trap handler
+	 */
+	public boolean trap(Em6502 cpu) {
+		if (((apple.P & Em6502.FLAG_D) != 0) ||
+			(apple.getCpuEngine() == EmAppleII.CPU_ENGINE_ACCURATE))
+			return false;
+
+		if (!isRomUnchanged()) {
+			verifiedCalls = 0;
+			verifiedClocks = 0;
+			for (int page = ROM_START_PAGE; page <= ROM_END_PAGE; page++)
+				romGeneration[page - ROM_START_PAGE] = apple.codeGeneration[page];
+		}
+
+		if (verifiedCalls >= VERIFY_CALLS) {
+			// Run natively on the guest zero page
+			zeroPage = apple.mem;
+			zeroPageOffset = apple.zeroPageOffset;
+			loadRegisters();
+			execute();
+
+			if (isDeclined) {
+				while (savedCount > 0) {
+					savedCount--;
+					zeroPage[savedAddresses[savedCount] + zeroPageOffset] = savedValues[savedCount];
+					isSaved[savedAddresses[savedCount]] = false;
+				}
+				return false;
+			}
+			while (savedCount > 0)
+				isSaved[savedAddresses[--savedCount]] = false;
+
+			apple.A = a;
+			apple.X = x;
+			apple.Y = y;
+			apple.setFNZ(n, z);
+			apple.setFC(c);
+			apple.P = v ? (apple.P | Em6502.FLAG_V) : (apple.P & ~Em6502.FLAG_V);
+			apple.clock += getChargedClocks() - 6;
+
+			return true;
+		}
+
+		// Run natively on a copy of the zero page, then verify against the ROM
+		// (which leaves the CPU past its RTS)
+		System.arraycopy(apple.mem, apple.zeroPageOffset, zeroPageCopy, 0, 0x100);
+		zeroPage = zeroPageCopy;
+		zeroPageOffset = 0;
+		loadRegisters();
+		execute();
+
+		long clockStart = apple.clock;
+		if (!apple.executeRoutine(VERIFY_CLOCKS) || isDeclined)
+			return true;
+
+		if (isSameState()) {
+			int clocks = (int) (apple.clock - clockStart);
+			if ((verifiedCalls == 0) || (clocks < verifiedClocksMin))
+				verifiedClocksMin = clocks;
+			if ((verifiedCalls == 0) || (clocks > verifiedClocksMax))
+				verifiedClocksMax = clocks;
+			verifiedCalls++;
+			verifiedClocks += clocks;
+		} else {
+			isMismatch = true;
+			apple.setTrapEnabled(entry, false);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Is the ROM mapped as when it was verified?
+	 */
+	private boolean isRomUnchanged() {
+		for (int page = ROM_START_PAGE; page <= ROM_END_PAGE; page++)
+			if (romGeneration[page - ROM_START_PAGE] != apple.codeGeneration[page])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Loads the emulated registers from the CPU's
+	 */
+	private void loadRegisters() {
+		a = apple.A;
+		x = apple.X;
+		y = apple.Y;
+		n = apple.getFN();
+		z = apple.getFZ();
+		c = apple.getFC();
+		v = ((apple.P & Em6502.FLAG_V) != 0);
+		isDeclined = false;
+	}
+
+	/**
+	 * Does the native state match the CPU's?
+	 */
+	private boolean isSameState() {
+		for (int address = 0; address < 0x100; address++)
+			if (zeroPageCopy[address] != apple.mem[address + apple.zeroPageOffset])
+				return false;
+
+		return (a == apple.A) && (x == apple.X) && (y == apple.Y) &&
+			(n == apple.getFN()) && (z == apple.getFZ()) && (c == apple.getFC()) &&
+			(v == ((apple.P & Em6502.FLAG_V) != 0));
+	}
+
+	/**
+	 * Runs the entry point
+	 */
+	private void execute() {
+		switch (entry) {
+		case FSUB:
+			loadArgFromYA();
+			fsubt();
+			break;
+		case FSUBT:
+			fsubt();
+			break;
+		case FADD:
+			loadArgFromYA();
+			faddt();
+			break;
+		case FADDT:
+			faddt();
+			break;
+		case FMULT:
+			loadArgFromYA();
+			fmultt();
+			break;
+		case FMULTT:
+			fmultt();
+			break;
+		case FDIV:
+			loadArgFromYA();
+			fdivt();
+			break;
+		case FDIVT:
+			fdivt();
+			break;
+		}
+	}
+
+	/*
+	 * 6502 operations on the emulated state
+	 */
+	private int flags(int value) {
+		value &= 0xff;
+		n = ((value & 0x80) != 0);
+		z = (value == 0);
+		return value;
+	}
+
+	private int peek(int address) {
+		return zeroPage[address + zeroPageOffset] & 0xff;
+	}
+
+	private void poke(int address, int value) {
+		if ((zeroPage == apple.mem) && !isSaved[address]) {
+			isSaved[address] = true;
+			savedAddresses[savedCount] = address;
+			savedValues[savedCount] = zeroPage[address + zeroPageOffset];
+			savedCount++;
+		}
+		zeroPage[address + zeroPageOffset] = (byte) value;
+	}
+
+	private int read(int address) {
+		if (address < 0x100)
+			return peek(address);
+		return apple.memoryRead(address);
+	}
+
+	private int adc(int value) {
+		int sum = a + value + (c ? 1 : 0);
+		v = (((a ^ sum) & ~(a ^ value) & 0x80) != 0);
+		c = (sum > 0xff);
+		return flags(sum);
+	}
+
+	private int sbc(int value) {
+		return adc(value ^ 0xff);
+	}
+
+	private void cmp(int register, int value) {
+		c = (register >= value);
+		flags(register - value);
+	}
+
+	private int asl(int value) {
+		c = ((value & 0x80) != 0);
+		return flags(value << 1);
+	}
+
+	private int lsr(int value) {
+		c = ((value & 0x01) != 0);
+		return flags(value >> 1);
+	}
+
+	private int rol(int value) {
+		int result = (value << 1) | (c ? 0x01 : 0x00);
+		c = ((value & 0x80) != 0);
+		return flags(result);
+	}
+
+	private int ror(int value) {
+		int result = (value >> 1) | (c ? 0x80 : 0x00);
+		c = ((value & 0x01) != 0);
+		return flags(result);
+	}
+
+	/*
+	 * Routines
+	 */
+	private void loadArgFromYA() {
+		int index = a | (y << 8);
+		if (((index >> 8) == 0xc0) || (((index + 4) >> 8) == 0xc0)) {
+			isDeclined = true;
+			return;
+		}
+
+		poke(INDEX, a);
+		poke(INDEX + 1, y);
+		y = flags(4);
+		a = flags(read((index + 4) & 0xffff));
+		poke(ARG + 4, a);
+		y = flags(3);
+		a = flags(read((index + 3) & 0xffff));
+		poke(ARG + 3, a);
+		y = flags(2);
+		a = flags(read((index + 2) & 0xffff));
+		poke(ARG + 2, a);
+		y = flags(1);
+		a = flags(read((index + 1) & 0xffff));
+		poke(ARGSIGN, a);
+		a = flags(a ^ peek(FACSIGN));
+		poke(SGNCPR, a);
+		a = flags(peek(ARGSIGN) | 0x80);
+		poke(ARG + 1, a);
+		y = flags(0);
+		a = flags(read(index));
+		poke(ARG, a);
+		a = flags(peek(FAC));
+	}
+
+	private void fsubt() {
+		a = flags(peek(FACSIGN) ^ 0xff);
+		poke(FACSIGN, a);
+		a = flags(a ^ peek(ARGSIGN));
+		poke(SGNCPR, a);
+		a = flags(peek(FAC));
+		faddt();
+	}
+
+	private void faddt() {
+		if (z) {
+			copyArgToFac();
+			return;
+		}
+
+		x = flags(peek(FACEXT));
+		poke(ARGEXT, x);
+		x = flags(ARG);
+		a = flags(peek(ARG));
+
+		y = flags(a);
+		if (z)
+			return;
+		c = true;
+		a = sbc(peek(FAC));
+		if (!z) {
+			if (c) {
+				poke(FAC, y);
+				y = flags(peek(ARGSIGN));
+				poke(FACSIGN, y);
+				a = flags(a ^ 0xff);
+				a = adc(0x00);
+				y = flags(0);
+				poke(ARGEXT, y);
+				x = flags(FAC);
+			} else {
+				y = flags(0);
+				poke(FACEXT, y);
+			}
+
+			cmp(a, 0xf9);
+			if (n)
+				shiftRight();
+			else {
+				y = flags(a);
+				a = flags(peek(FACEXT));
+				poke(x + 1, lsr(peek(x + 1)));
+				shiftRightBits(false);
+			}
+		}
+
+		// FADD3
+		n = ((peek(SGNCPR) & 0x80) != 0);
+		v = ((peek(SGNCPR) & 0x40) != 0);
+		z = ((a & peek(SGNCPR)) == 0);
+		if (!n) {
+			a = adc(peek(ARGEXT));
+			poke(FACEXT, a);
+			for (int offset = 4; offset > 0; offset--) {
+				a = flags(peek(FAC + offset));
+				a = adc(peek(ARG + offset));
+				poke(FAC + offset, a);
+			}
+			normalizeFac5();
+			return;
+		}
+
+		y = flags(FAC);
+		cmp(x, ARG);
+		if (!z)
+			y = flags(ARG);
+		c = true;
+		a = flags(a ^ 0xff);
+		a = adc(peek(ARGEXT));
+		poke(FACEXT, a);
+		for (int offset = 4; offset > 0; offset--) {
+			a = flags(peek(y + offset));
+			a = sbc(peek(x + offset));
+			poke(FAC + offset, a);
+		}
+
+		if (!c)
+			complementFac();
+		normalizeFac2();
+	}
+
+	private void copyArgToFac() {
+		a = flags(peek(ARGSIGN));
+		poke(FACSIGN, a);
+		x = flags(5);
+		do {
+			a = flags(peek(ARG - 1 + x));
+			poke(FAC - 1 + x, a);
+			x = flags(x - 1);
+		} while (!z);
+		poke(FACEXT, x);
+	}
+
+	private void normalizeFac2() {
+		y = flags(0);
+		a = flags(y);
+		c = false;
+		for (;;) {
+			x = flags(peek(FAC + 1));
+			if (!z)
+				break;
+			x = flags(peek(FAC + 2));
+			poke(FAC + 1, x);
+			x = flags(peek(FAC + 3));
+			poke(FAC + 2, x);
+			x = flags(peek(FAC + 4));
+			poke(FAC + 3, x);
+			x = flags(peek(FACEXT));
+			poke(FAC + 4, x);
+			poke(FACEXT, y);
+			a = adc(0x08);
+			cmp(a, 0x20);
+			if (z) {
+				zeroFac();
+				return;
+			}
+		}
+
+		// NORMALIZE.FAC.4
+		while (!n) {
+			a = adc(0x01);
+			poke(FACEXT, asl(peek(FACEXT)));
+			poke(FAC + 4, rol(peek(FAC + 4)));
+			poke(FAC + 3, rol(peek(FAC + 3)));
+			poke(FAC + 2, rol(peek(FAC + 2)));
+			poke(FAC + 1, rol(peek(FAC + 1)));
+		}
+		c = true;
+		a = sbc(peek(FAC));
+		if (c) {
+			zeroFac();
+			return;
+		}
+		a = flags(a ^ 0xff);
+		a = adc(0x01);
+		poke(FAC, a);
+		normalizeFac5();
+	}
+
+	private void normalizeFac5() {
+		if (c)
+			normalizeFac6();
+	}
+
+	private void normalizeFac6() {
+		poke(FAC, flags(peek(FAC) + 1));
+		if (z) {
+			isDeclined = true;
+			return;
+		}
+		for (int offset = 1; offset <= 4; offset++)
+			poke(FAC + offset, ror(peek(FAC + offset)));
+		poke(FACEXT, ror(peek(FACEXT)));
+	}
+
+	private void zeroFac() {
+		a = flags(0);
+		poke(FAC, a);
+		poke(FACSIGN, a);
+	}
+
+	private void complementFac() {
+		a = flags(peek(FACSIGN) ^ 0xff);
+		poke(FACSIGN, a);
+		for (int offset = 1; offset <= 4; offset++) {
+			a = flags(peek(FAC + offset) ^ 0xff);
+			poke(FAC + offset, a);
+		}
+		a = flags(peek(FACEXT) ^ 0xff);
+		poke(FACEXT, a);
+		poke(FACEXT, flags(peek(FACEXT) + 1));
+		if (!z)
+			return;
+		incrementFacMantissa();
+	}
+
+	private void incrementFacMantissa() {
+		for (int offset = 4; offset > 0; offset--) {
+			poke(FAC + offset, flags(peek(FAC + offset) + 1));
+			if (!z)
+				return;
+		}
+	}
+
+	/**
+	 * Byte shift of the mantissa at x into the rounding byte
+	 */
+	private void shiftRightBytes() {
+		y = flags(peek(x + 4));
+		poke(FACEXT, y);
+		y = flags(peek(x + 3));
+		poke(x + 4, y);
+		y = flags(peek(x + 2));
+		poke(x + 3, y);
+		y = flags(peek(x + 1));
+		poke(x + 2, y);
+		y = flags(peek(SHIFTSIGNEXT));
+		poke(x + 1, y);
+	}
+
+	/**
+	 * Shifts the mantissa at x right by -A bits
+	 */
+	private void shiftRight() {
+		for (;;) {
+			a = adc(0x08);
+			if (!n && !z)
+				break;
+			shiftRightBytes();
+		}
+		a = sbc(0x08);
+		y = flags(a);
+		a = flags(peek(FACEXT));
+		if (c) {
+			c = false;
+			return;
+		}
+		shiftRightBits(true);
+	}
+
+	/**
+	 * Bit shift loop (SHIFT.RIGHT.3, or SHIFT.RIGHT.4 on the first pass)
+	 */
+	private void shiftRightBits(boolean isSignExtended) {
+		do {
+			if (isSignExtended) {
+				poke(x + 1, asl(peek(x + 1)));
+				if (c)
+					poke(x + 1, flags(peek(x + 1) + 1));
+				poke(x + 1, ror(peek(x + 1)));
+				poke(x + 1, ror(peek(x + 1)));
+			}
+			isSignExtended = true;
+			poke(x + 2, ror(peek(x + 2)));
+			poke(x + 3, ror(peek(x + 3)));
+			poke(x + 4, ror(peek(x + 4)));
+			a = ror(a);
+			y = flags(y + 1);
+		} while (!z);
+		c = false;
+	}
+
+	/**
+	 * Returns false when the result underflowed (FAC is zeroed and the
+	 * caller returns)
+	 */
+	private boolean addExponents() {
+		a = flags(peek(ARG));
+		if (z) {
+			zeroFac();
+			return false;
+		}
+		c = false;
+		a = adc(peek(FAC));
+		if (c) {
+			if (n) {
+				isDeclined = true;
+				return false;
+			}
+			c = false;
+		} else if (!n) {
+			zeroFac();
+			return false;
+		}
+		a = adc(0x80);
+		poke(FAC, a);
+		if (z) {
+			poke(FACSIGN, a);
+			return true;
+		}
+		a = flags(peek(SGNCPR));
+		poke(FACSIGN, a);
+		return true;
+	}
+
+	private void fmultt() {
+		if (z)
+			return;
+		if (!addExponents())
+			return;
+
+		a = flags(0);
+		for (int offset = 0; offset < 4; offset++)
+			poke(RESULT + offset, a);
+		a = flags(peek(FACEXT));
+		multiply1();
+		a = flags(peek(FAC + 4));
+		multiply1();
+		a = flags(peek(FAC + 3));
+		multiply1();
+		a = flags(peek(FAC + 2));
+		multiply1();
+		a = flags(peek(FAC + 1));
+		multiply2();
+		copyResultIntoFac();
+	}
+
+	private void multiply1() {
+		if (!z) {
+			multiply2();
+			return;
+		}
+		x = flags(RESULT - 1);
+		shiftRightBytes();
+		shiftRight();
+	}
+
+	private void multiply2() {
+		a = lsr(a);
+		a = flags(a | 0x80);
+		do {
+			y = flags(a);
+			if (c) {
+				c = false;
+				for (int offset = 3; offset >= 0; offset--) {
+					a = flags(peek(RESULT + offset));
+					a = adc(peek(ARG + 1 + offset));
+					poke(RESULT + offset, a);
+				}
+			}
+			for (int offset = 0; offset < 4; offset++)
+				poke(RESULT + offset, ror(peek(RESULT + offset)));
+			poke(FACEXT, ror(peek(FACEXT)));
+			a = flags(y);
+			a = lsr(a);
+		} while (!z);
+	}
+
+	private void copyResultIntoFac() {
+		for (int offset = 0; offset < 4; offset++) {
+			a = flags(peek(RESULT + offset));
+			poke(FAC + 1 + offset, a);
+		}
+		normalizeFac2();
+	}
+
+	private void roundFac() {
+		a = flags(peek(FAC));
+		if (z)
+			return;
+		poke(FACEXT, asl(peek(FACEXT)));
+		if (!c)
+			return;
+		incrementFacMantissa();
+		if (!z)
+			return;
+		normalizeFac6();
+	}
+
+	private void fdivt() {
+		if (z) {
+			isDeclined = true;
+			return;
+		}
+		roundFac();
+		a = flags(0);
+		c = true;
+		a = sbc(peek(FAC));
+		poke(FAC, a);
+		if (!addExponents())
+			return;
+		poke(FAC, flags(peek(FAC) + 1));
+		if (z) {
+			isDeclined = true;
+			return;
+		}
+
+		x = flags(0xfc);
+		a = flags(0x01);
+		boolean isCompare = true;
+		for (;;) {
+			if (isCompare) {
+				for (int offset = 1; offset <= 4; offset++) {
+					y = flags(peek(ARG + offset));
+					cmp(y, peek(FAC + offset));
+					if (!z)
+						break;
+				}
+			}
+
+			// PHP
+			boolean savedN = n, savedZ = z, savedC = c, savedV = v;
+			a = rol(a);
+			if (c) {
+				x = flags(x + 1);
+				poke((RESULT + 3 + x) & 0xff, a);
+				if (z)
+					a = flags(0x40);
+				else if (!n) {
+					a = flags(a << 6);
+					poke(FACEXT, a);
+					n = savedN;
+					z = savedZ;
+					c = savedC;
+					v = savedV;
+					copyResultIntoFac();
+					return;
+				} else
+					a = flags(0x01);
+			}
+
+			// PLP
+			n = savedN;
+			z = savedZ;
+			c = savedC;
+			v = savedV;
+			if (c) {
+				y = flags(a);
+				for (int offset = 4; offset > 0; offset--) {
+					a = flags(peek(ARG + offset));
+					a = sbc(peek(FAC + offset));
+					poke(ARG + offset, a);
+				}
+				a = flags(y);
+			}
+
+			poke(ARG + 4, asl(peek(ARG + 4)));
+			poke(ARG + 3, rol(peek(ARG + 3)));
+			poke(ARG + 2, rol(peek(ARG + 2)));
+			poke(ARG + 1, rol(peek(ARG + 1)));
+			isCompare = !c && n;
+		}
+	}
+}
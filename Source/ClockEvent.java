@@ -0,0 +1,14 @@
+/**
+ * AppleIIGo
+ * Clock event interface
+ * Released under the GPL
+ */
+
+public interface ClockEvent {
+	/**
+	 * Called once the CPU clock reaches the scheduled clock
+	 *
+	 * @param	clock	The clock the event was scheduled for
+	 */
+	public void clockEvent(long clock);
+}
@@ -0,0 +1,141 @@
+/**
+ * AppleIIGo
+ * Clock event scheduler
+ * Released under the GPL
+ */
+
+public class ClockScheduler {
+	// Min-heap of pending events, ordered by clock
+	private long[] eventClock = new long[16];
+	private ClockEvent[] eventHandler = new ClockEvent[16];
+	private int eventCount;
+
+	/**
+	 * Schedule an event
+	 *
+	 * @param	clock	The CPU clock to run the event at
+	 * @param	event	The event
+	 */
+	public synchronized void schedule(long clock, ClockEvent event) {
+		if (eventCount == eventClock.length) {
+			long[] newEventClock = new long[eventCount * 2];
+			ClockEvent[] newEventHandler = new ClockEvent[eventCount * 2];
+			System.arraycopy(eventClock, 0, newEventClock, 0, eventCount);
+			System.arraycopy(eventHandler, 0, newEventHandler, 0, eventCount);
+			eventClock = newEventClock;
+			eventHandler = newEventHandler;
+		}
+
+		siftUp(eventCount++, clock, event);
+	}
+
+	/**
+	 * Cancel all pending occurrences of an event
+	 */
+	public synchronized void cancel(ClockEvent event) {
+		int count = 0;
+		for (int index = 0; index < eventCount; index++) {
+			if (eventHandler[index] != event) {
+				eventClock[count] = eventClock[index];
+				eventHandler[count] = eventHandler[index];
+				count++;
+			}
+		}
+		for (int index = count; index < eventCount; index++)
+			eventHandler[index] = null;
+		eventCount = count;
+
+		for (int index = (eventCount >> 1) - 1; index >= 0; index--)
+			siftDown(index, eventClock[index], eventHandler[index]);
+	}
+
+	/**
+	 * Cancel all pending events
+	 */
+	public synchronized void clear() {
+		for (int index = 0; index < eventCount; index++)
+			eventHandler[index] = null;
+		eventCount = 0;
+	}
+
+	/**
+	 * Get the clock of the next event (Long.MAX_VALUE if none)
+	 */
+	public synchronized long getNextClock() {
+		return (eventCount > 0) ? eventClock[0] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Run all events due at or before clock
+	 */
+	public void dispatch(long clock) {
+		for (;;) {
+			long dueClock;
+			ClockEvent event;
+
+			synchronized (this) {
+				if ((eventCount == 0) || (eventClock[0] > clock))
+					return;
+				dueClock = eventClock[0];
+				event = eventHandler[0];
+				remove(0);
+			}
+
+			// Called unlocked, so events can reschedule themselves
+			event.clockEvent(dueClock);
+		}
+	}
+
+	/**
+	 * Remove the event at index, restoring heap order
+	 */
+	private void remove(int index) {
+		eventCount--;
+		long clock = eventClock[eventCount];
+		ClockEvent event = eventHandler[eventCount];
+		eventHandler[eventCount] = null;
+		if (index == eventCount)
+			return;
+
+		if ((index > 0) && (clock < eventClock[(index - 1) >> 1]))
+			siftUp(index, clock, event);
+		else
+			siftDown(index, clock, event);
+	}
+
+	/**
+	 * Place an event at index or above it
+	 */
+	private void siftUp(int index, long clock, ClockEvent event) {
+		while (index > 0) {
+			int parent = (index - 1) >> 1;
+			if (eventClock[parent] <= clock)
+				break;
+			eventClock[index] = eventClock[parent];
+			eventHandler[index] = eventHandler[parent];
+			index = parent;
+		}
+		eventClock[index] = clock;
+		eventHandler[index] = event;
+	}
+
+	/**
+	 * Place an event at index or below it
+	 */
+	private void siftDown(int index, long clock, ClockEvent event) {
+		for (;;) {
+			int child = (index << 1) + 1;
+			if (child >= eventCount)
+				break;
+			if (((child + 1) < eventCount) && (eventClock[child + 1] < eventClock[child]))
+				child++;
+			if (clock <= eventClock[child])
+				break;
+			eventClock[index] = eventClock[child];
+			eventHandler[index] = eventHandler[child];
+			index = child;
+		}
+		eventClock[index] = clock;
+		eventHandler[index] = event;
+	}
+}
@@ -0,0 +1,19 @@
+/**
+ * AppleIIGo
+ * Native routine trap interface
+ * Released under the GPL
+ */
+
+public interface CpuTrap {
+	/**
+	 * Called when a JSR or JMP reaches the trapped address. The handler
+	 * reproduces the routine's memory and register effects up to (not
+	 * including) its final RTS, which the CPU then performs. It may
+	 * instead run the routine on the CPU (Em6502.executeRoutine), leaving
+	 * PC at the return address.
+	 *
+	 * @param	cpu		The CPU, with PC at the trapped address
+	 * @return	false to run the routine on the CPU instead
+	 */
+	public boolean trap(Em6502 cpu);
+}
@@ -1,4 +1,5 @@
 import java.io.PrintWriter;
+import java.util.Arrays;
 
 
 /**
@@ -17,6 +18,11 @@ public class Em6502 {
 	 */
 	public byte[] mem = null;
 
+	/**
+	 * Offset of the current zero page and stack in mem
+	 */
+	protected int zeroPageOffset = 0;
+
 	/**
 	 * Generic memory read & write (0x0000-0xffff)
 	 */
@@ -25,16 +31,17 @@ public class Em6502 {
 	}
 	protected void memoryWrite(int addr, int value) {
 		mem[addr] = (byte) value;
+		codeGeneration[addr >> 8]++;
 	}
 
 	/*
 	 * Zero page read & write
 	 */
 	private final int zeroPageRead(int addr) {
-		return (mem[addr] & 0xff);
+		return (mem[addr + zeroPageOffset] & 0xff);
 	}
 	private final void zeroPageWrite(int addr, int value) {
-		mem[addr] = (byte) value;
+		mem[addr + zeroPageOffset] = (byte) value;
 	}
 
 	/**
@@ -68,9 +75,13 @@ public class Em6502 {
 	public int A, X, Y, P, S, PC;
 
 	/**
-	 * CPU Clock
+	 * CPU Clock (64-bit, so it never wraps around)
 	 */
-	protected int clock;
+	protected long clock;
+
+	public final long getClock() {
+		return clock;
+	}
 
 	/**
 	 * CPU Flags
@@ -119,6 +130,163 @@ public class Em6502 {
 	private int BCDTableAdd[];	// addition correction
 	private int BCDTableSub[];	// subtraction correction
 
+	/**
+	 * Instruction clocks and lengths (as charged by executeInstruction)
+	 */
+	private static final int[] INSTRUCTION_CYCLES = {
+		7,6,2,2,5,3,5,2,3,2,2,2,5,4,6,2,
+		2,5,5,2,5,4,6,2,2,4,2,2,5,4,7,2,
+		6,6,2,2,3,3,5,2,4,2,2,2,4,4,6,2,
+		2,5,5,2,3,4,6,2,2,4,2,2,4,4,7,2,
+		6,6,2,2,2,3,5,2,3,2,2,2,3,4,6,2,
+		2,5,5,2,2,4,6,2,2,4,3,2,2,4,7,2,
+		6,6,2,2,3,3,5,2,4,2,2,2,5,4,6,2,
+		2,5,5,2,3,4,6,2,2,4,4,2,6,4,7,2,
+		2,6,2,2,3,3,3,2,2,2,2,2,4,4,4,2,
+		2,6,6,2,4,4,4,2,2,5,2,2,4,5,4,2,
+		2,6,2,2,3,3,3,2,2,2,2,2,4,4,4,2,
+		2,5,5,2,4,4,4,2,2,4,2,2,4,4,4,2,
+		2,6,2,2,3,3,5,2,2,2,2,2,4,4,6,2,
+		2,5,5,2,2,4,6,2,2,4,3,2,2,4,7,2,
+		2,6,2,2,3,3,5,2,2,2,2,2,4,4,6,2,
+		2,5,5,2,2,4,6,2,2,4,4,2,2,4,7,2
+	};
+	private static final int[] INSTRUCTION_LENGTHS = {
+		1,2,1,1,2,2,2,1,1,2,1,1,3,3,3,1,
+		2,2,2,1,2,2,2,1,1,3,1,1,3,3,3,1,
+		3,2,1,1,2,2,2,1,1,2,1,1,3,3,3,1,
+		2,2,2,1,2,2,2,1,1,3,1,1,3,3,3,1,
+		1,2,1,1,1,2,2,1,1,2,1,1,3,3,3,1,
+		2,2,2,1,1,2,2,1,1,3,1,1,1,3,3,1,
+		1,2,1,1,2,2,2,1,1,2,1,1,3,3,3,1,
+		2,2,2,1,2,2,2,1,1,3,1,1,3,3,3,1,
+		2,2,1,1,2,2,2,1,1,2,1,1,3,3,3,1,
+		2,2,2,1,2,2,2,1,1,3,1,1,3,3,3,1,
+		2,2,2,1,2,2,2,1,1,2,1,1,3,3,3,1,
+		2,2,2,1,2,2,2,1,1,3,1,1,3,3,3,1,
+		2,2,1,1,2,2,2,1,1,2,1,1,3,3,3,1,
+		2,2,2,1,1,2,2,1,1,3,1,1,1,3,3,1,
+		2,2,1,1,2,2,2,1,1,2,1,1,3,3,3,1,
+		2,2,2,1,1,2,2,1,1,3,1,1,1,3,3,1
+	};
+
+	/**
+	 * Cycle-exact timing classes (used by executeAccurateInstructions only)
+	 */
+	private static final int TIMING_NONE = 0;
+	private static final int TIMING_ABSX = 1;	// read, +1 on page crossing
+	private static final int TIMING_ABSY = 2;	// read, +1 on page crossing
+	private static final int TIMING_ZPINDY = 3;	// read, +1 on page crossing
+	private static final int TIMING_BRANCH = 4;	// +1 if taken across a page
+	private static final int TIMING_RMW = 5;	// read, dummy write, write
+	private static final int TIMING_RMWX = 6;
+
+	private static final int[] INSTRUCTION_TIMING = {
+		0,0,0,0,0,0,0,0,0,0,0,0,0,0,5,0,
+		4,3,0,0,0,0,0,0,0,2,0,0,0,1,6,0,
+		0,0,0,0,0,0,0,0,0,0,0,0,0,0,5,0,
+		4,3,0,0,0,0,0,0,0,2,0,0,1,1,6,0,
+		0,0,0,0,0,0,0,0,0,0,0,0,0,0,5,0,
+		4,3,0,0,0,0,0,0,0,2,0,0,0,1,6,0,
+		0,0,0,0,0,0,0,0,0,0,0,0,0,0,5,0,
+		4,3,0,0,0,0,0,0,0,2,0,0,0,1,6,0,
+		4,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,
+		4,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,
+		0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,
+		4,3,0,0,0,0,0,0,0,2,0,0,1,1,2,0,
+		0,0,0,0,0,0,0,0,0,0,0,0,0,0,5,0,
+		4,3,0,0,0,0,0,0,0,2,0,0,0,1,6,0,
+		0,0,0,0,0,0,0,0,0,0,0,0,0,0,5,0,
+		4,3,0,0,0,0,0,0,0,2,0,0,0,1,6,0
+	};
+
+	/**
+	 * Code cache
+	 *
+	 * Every write through memoryWrite() bumps the generation of the page
+	 * written, so cached translations of that page become stale.
+	 */
+	protected int[] codeGeneration = new int[0x101];
+
+	/**
+	 * Page with side effects on access (-1 if none)
+	 */
+	protected int ioPage = -1;
+
+	/**
+	 * Basic block cache
+	 *
+	 * Each block is: end page, start page generation, end page generation,
+	 * then (opcode, operand, next PC) for each instruction.
+	 */
+	private static final int BLOCK_HOT_THRESHOLD = 16;
+	private static final int BLOCK_MAX_INSTRUCTIONS = 32;
+	private static final int BLOCK_END_PAGE = 0;
+	private static final int BLOCK_START_GENERATION = 1;
+	private static final int BLOCK_END_GENERATION = 2;
+	private static final int BLOCK_HEADER_SIZE = 3;
+
+	private int[][] blockCache;
+	private int[] blockHeat;
+	private int[] blockBuffer;
+
+	/**
+	 * Pre-decoded instruction cache (one entry per address)
+	 */
+	private int[] decodeHandler;
+	private int[] decodeOperand;
+	private int[] decodeCycles;
+	private int[] decodeGeneration;
+
+	/**
+	 * Superinstructions (fused pairs of common idioms in the decode cache)
+	 */
+	private static final int FUSED_BASE = 0x100;
+	private static final int FUSED_LDAIMM_STAZP = 0x100;
+	private static final int FUSED_LDAIMM_STAABS = 0x101;
+	private static final int FUSED_LDAZP_STAZP = 0x102;
+	private static final int FUSED_LDAABS_STAABS = 0x103;
+	private static final int FUSED_DEX_BNE = 0x104;
+	private static final int FUSED_DEY_BNE = 0x105;
+	private static final int FUSED_INCZP_BNE = 0x106;
+	private static final int FUSED_CMPIMM_BEQ = 0x107;
+	private static final int FUSED_CMPIMM_BNE = 0x108;
+	private static final int FUSED_INX_BNE = 0x109;
+	private static final int FUSED_INY_BNE = 0x10a;
+
+	private static final int[] FUSED_LENGTHS = {
+		4, 5, 4, 6, 3, 3, 4, 4, 4, 3, 3
+	};
+
+	private boolean isInstructionFusion;
+	protected long dispatchCount;
+	protected long fusedCount;
+
+	/**
+	 * Memory fill/copy loops (run in bulk from the decode cache)
+	 */
+	private static final int MEMORY_LOOP = 0x1ff;
+	private static final int LOOP_NONE = 0;
+	private static final int LOOP_ABS = 1;
+	private static final int LOOP_ZPIND = 2;
+
+	private boolean isLoopAcceleration;
+	private boolean loopIndexY;
+	private int loopStep;
+	private int loopSourceMode, loopSource;
+	private int loopDestMode, loopDest;
+	private int loopClocks;
+	protected long loopCount;
+
+	/**
+	 * Native routine traps (checked at JSR and JMP targets only)
+	 */
+	private CpuTrap[] trapRegistry;
+	private int[] trapCycles;
+	private CpuTrap[] traps;
+	private int trapsEnabled;
+	protected long trapCount;
+
 	/**
 	 * Constructor
 	 */
@@ -150,10 +318,10 @@ public class Em6502 {
 	private final int pop() {
 		S++;
 		S &= 0xff;
-		return (mem[S | 0x100] & 0xff);
+		return (mem[(S | 0x100) + zeroPageOffset] & 0xff);
 	}
 	private final void push(int value) {
-		mem[S | 0x100] = (byte) value;
+		mem[(S | 0x100) + zeroPageOffset] = (byte) value;
 		S--;
 		S &= 0xff;
 	}
@@ -181,15 +349,15 @@ public class Em6502 {
 	 * recent ALU results are cached to that the condition codes can be
 	 * handled more easily by the emulator's native hardware.
 	 */
-	private final boolean getFN() {return ((NZFlags & 0x280) != 0);}
+	protected final boolean getFN() {return ((NZFlags & 0x280) != 0);}
 	private final boolean getFNotN() {return ((NZFlags & 0x280) == 0);}
-	private final boolean getFZ() {return ((NZFlags & 0xff) == 0);}
+	protected final boolean getFZ() {return ((NZFlags & 0xff) == 0);}
 	private final boolean getFNotZ() {return ((NZFlags & 0xff) != 0);}
-	private final void setFNZ(boolean n, boolean z) {NZFlags = ((n) ? 0x200 : 0x00) | ((z) ? 0x00 : 0x01);}
-	private final boolean getFC() {return (result >> 8) != 0;}
+	protected final void setFNZ(boolean n, boolean z) {NZFlags = ((n) ? 0x200 : 0x00) | ((z) ? 0x00 : 0x01);}
+	protected final boolean getFC() {return (result >> 8) != 0;}
 	private final boolean getFNotC() {return (result >> 8) == 0;}
 	private final int getFC_() {return result >> 8;}
-	private final void setFC(boolean c) {result = (c ? 0x100 : 0x00);}
+	protected final void setFC(boolean c) {result = (c ? 0x100 : 0x00);}
 
 	/*
 	 * Macro for page crossing cycle regulation - TODO: Why not used!? CPU probably not cycle accurate.
@@ -287,6 +455,39 @@ public class Em6502 {
 		return easp2 + (memoryRead(easp1 + 1) << 8) + X;
 	}
 
+	/*
+	 * Effective address calculation for pre-decoded operands
+	 * (the operand bytes have already been fetched)
+	 */
+	private final int eazpx(int zp) {
+		return (zp + X) & 0xff;
+	}
+	private final int eazpy(int zp) {
+		return (zp + Y) & 0xff;
+	}
+	private final int eaabsx(int abs) {
+		return abs + X;
+	}
+	private final int eaabsy(int abs) {
+		return abs + Y;
+	}
+	private final int eaabsind(int abs) {
+		return memoryRead(abs) + (memoryRead(abs + 1) << 8);
+	}
+	private final int eazpxind(int zp) {
+		easp1 = (zp + X) & 0xff;
+		return zeroPageRead(easp1) + (zeroPageRead((easp1 + 1) & 0xff) << 8);
+	}
+	private final int eazpindy(int zp) {
+		return zeroPageRead(zp) + (zeroPageRead((zp + 1) & 0xff) << 8) + Y;
+	}
+	private final int eazpind(int zp) {
+		return zeroPageRead(zp) + (zeroPageRead((zp + 1) & 0xff) << 8);
+	}
+	private final int eaabsxind(int abs) {
+		return memoryRead(abs) + (memoryRead(abs + 1) << 8) + X;
+	}
+
 	/*
 	 * Misc. macros
 	 */
@@ -303,6 +504,125 @@ public class Em6502 {
 		clock++;
 	}
 
+	/*
+	 * Instruction bodies, shared by all engines (which only differ in how
+	 * they fetch operands and charge clocks). Read-modify-write bodies
+	 * return the value to write back.
+	 */
+	private final void adc(int value) {
+		result = value + A + getFC_();
+		setV(!(((value ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
+		adcBCDAdjust();
+		A = result & 0xff;
+		NZFlags = A;
+	}
+	private final void sbc(int value) {
+		value = 255 - value;
+		result = value + A + getFC_();
+		setV(!(((value ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
+		sbcBCDAdjust();
+		A = result & 0xff;
+		NZFlags = A;
+	}
+	private final void compare(int register, int value) {
+		result = 0x100 + register - value;
+		NZFlags = result;
+	}
+	private final void bit(int value) {
+		setV((value & 0x40) != 0);
+		NZFlags = ((value & 0x80) << 2) | (A & value);
+	}
+	private final int asl(int value) {
+		result = value << 1;
+		NZFlags = result;
+		return result;
+	}
+	private final int rol(int value) {
+		result = (value << 1) | getFC_();
+		NZFlags = result;
+		return result;
+	}
+	private final int lsr(int value) {
+		result = (value & 0x01) << 8;	// just get the C bit
+		NZFlags = value >> 1;		// result in NZFlags
+		return NZFlags;
+	}
+	private final int ror(int value) {
+		result = ((value & 0x01) << 8) | (getFC_() << 7) | (value >> 1);
+		NZFlags = result;
+		return result;
+	}
+	private final int dec(int value) {
+		NZFlags = value + 0xff;
+		return NZFlags;
+	}
+	private final int inc(int value) {
+		NZFlags = value + 1;
+		return NZFlags;
+	}
+	private final int trb(int value) {
+		bit(value);
+		return (value & ~A) & 0xff;
+	}
+	private final int tsb(int value) {
+		bit(value);
+		return value | A;
+	}
+	private final void jump(int address) {
+		PC = address;
+		if (traps != null)
+			executeTrap();
+	}
+	private final void jsr(int address) {
+		PC--;
+		push(PC >> 8);
+		push(PC);
+		jump(address);
+	}
+	private final void rts() {
+		PC = pop();	// splitting is necessary
+		PC += pop() << 8;	// because of nested macros
+		PC++;
+	}
+	private final void rti() {
+		P = pop() | FLAG_B | FLAG_R; // B and R always set
+		setFC(getC());
+		setFNZ(getN(), getZ());
+		PC = pop();	// splitting is necessary
+		PC += pop() << 8;	// because of nested macros
+	}
+	private final void brk() {
+		PC++;
+		push(PC >> 8);	// save PCH, PCL & P
+		push(PC);
+		php();
+		setI(true);
+		PC = memoryRead(0xfffe);
+		PC |= memoryRead(0xffff) << 8;
+	}
+	private final void php() {
+		setN(getFN());
+		setZ(getFZ());
+		setC(getFC());
+		push(P);
+	}
+	private final void plp() {
+		P = pop() | FLAG_B | FLAG_R; // B and R always set
+		setFC(getC());
+		setFNZ(getN(), getZ());
+		if ((pendingIRQ > 0) && !getI()) {
+			pendingIRQ--;
+			assertIRQ();
+		}
+	}
+	private final void cli() {
+		setI(false);
+		if (pendingIRQ > 0) {
+			pendingIRQ--;
+			assertIRQ();
+		}
+	}
+
 //	private PrintWriter runFile;
 //	private boolean runFlag = false;
 //
@@ -349,84 +669,42 @@ public class Em6502 {
 		
 		switch(opcode) {
 		case 0x69:	// ADC #imm
-			operand = eaimm();
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(eaimm());
 			clock += 2;
 			break;
 			
 		case 0x6D:	// ADC abs
-			operand = memoryRead(eaabs());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(memoryRead(eaabs()));
 			clock += 4;
 			break;
 			
 		case 0x65:	// ADC zp
-			operand = zeroPageRead(eazp());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(zeroPageRead(eazp()));
 			clock += 3;
 			break;
 			
 		case 0x61:	// ADC (zp,X)
-			operand = memoryRead(eazpxind());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(memoryRead(eazpxind()));
 			clock += 6;
 			break;
 			
 		case 0x71:	// ADC (zp),Y
-			operandAddress = eazpindy();
-			operand = memoryRead(operandAddress);
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(memoryRead(eazpindy()));
 			clock += 5;
 			break;
 			
 		case 0x75:	// ADC zp,X
-			operandAddress = eazpx();
-			operand = zeroPageRead(operandAddress);
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(zeroPageRead(eazpx()));
 			clock += 4;
 			break;
 			
 		case 0x7D:	// ADC abs,X
-			operand = memoryRead(eaabsx());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(memoryRead(eaabsx()));
 			clock += 4;
 			break;
 			
 		case 0x79:	// ADC abs,Y
-			operand = memoryRead(eaabsy());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(memoryRead(eaabsy()));
 			clock += 4;
 			break;
 			
@@ -480,44 +758,31 @@ public class Em6502 {
 			
 		case 0x0E:	// ASL abs
 			operandAddress = eaabs();
-			operand = memoryRead(operandAddress);
-			result = operand << 1;
-			NZFlags = result;
-			memoryWrite(operandAddress, result);
+			memoryWrite(operandAddress, asl(memoryRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0x06:	// ASL zp
 			operandAddress = eazp();
-			operand = zeroPageRead(operandAddress);
-			result = operand << 1;
-			NZFlags = result;
-			zeroPageWrite(operandAddress, result);
+			zeroPageWrite(operandAddress, asl(zeroPageRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0x0A:	// ASL acc
-			result = A << 1;
-			A = result & 0xff;
+			A = asl(A) & 0xff;
 			NZFlags = A;
 			clock += 2;
 			break;
 			
 		case 0x16:	// ASL zp,X
 			operandAddress = eazpx();
-			operand = zeroPageRead(operandAddress);
-			result = operand << 1;
-			NZFlags = result;
-			zeroPageWrite(operandAddress, result);
+			zeroPageWrite(operandAddress, asl(zeroPageRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0x1E:	// ASL abs,X
 			operandAddress = eaabsx();
-			operand = memoryRead(operandAddress);
-			result = operand << 1;
-			NZFlags = result;
-			memoryWrite(operandAddress, result);
+			memoryWrite(operandAddress, asl(memoryRead(operandAddress)));
 			clock += 7;
 			break;
 			
@@ -543,16 +808,12 @@ public class Em6502 {
 			break;
 			
 		case 0x2C:	// BIT abs
-			operand = memoryRead(eaabs());
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
+			bit(memoryRead(eaabs()));
 			clock += 4;
 			break;
 			
 		case 0x24:	// BIT zp
-			operand = zeroPageRead(eazp());
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
+			bit(zeroPageRead(eazp()));
 			clock += 3;
 			break;
 			
@@ -561,7 +822,7 @@ public class Em6502 {
 			clock += 2;
 			if (getFN()) 
 				branch(operand);
-				break;
+			break;
 			
 		case 0xD0:	// BNE rr
 			operand = earel();
@@ -578,16 +839,7 @@ public class Em6502 {
 			break;
 			
 		case 0x00:	// BRK
-			PC++;
-			push(PC >> 8);	// save PCH, PCL & P
-			push(PC);
-			setN(getFN());
-			setZ(getFZ());
-			setC(getFC());
-			push(P); // B and R always set
-			setI(true);
-			PC = memoryRead(0xfffe);
-			PC |= memoryRead(0xffff) << 8;
+			brk();
 			clock += 7;
 			break;
 			
@@ -596,7 +848,7 @@ public class Em6502 {
 			clock += 2;
 			if (!getV()) 
 				branch(operand);
-				break;
+			break;
 			
 		case 0x70:	// BVS rr
 			operand = earel();
@@ -616,12 +868,8 @@ public class Em6502 {
 			break;
 			
 		case 0x58:	// CLI
-			setI(false);
 			clock += 2;
-			if (pendingIRQ > 0) {
-				pendingIRQ--;
-				assertIRQ();
-			}
+			cli();
 			break;
 			
 		case 0xB8:	// CLV
@@ -630,130 +878,106 @@ public class Em6502 {
 			break;
 			
 		case 0xC9:	// CMP #imm
-			result = 0x100 + A - eaimm();
-			NZFlags = result;
+			compare(A, eaimm());
 			clock += 2;
 			break;
 			
 		case 0xCD:	// CMP abs
-			result = 0x100 + A - memoryRead(eaabs());
-			NZFlags = result;
+			compare(A, memoryRead(eaabs()));
 			clock += 4;
 			break;
 			
 		case 0xC5:	// CMP zp
-			result = 0x100 + A - zeroPageRead(eazp());
-			NZFlags = result;
+			compare(A, zeroPageRead(eazp()));
 			clock += 3;
 			break;
 			
 		case 0xC1:	// CMP (zp,X)
-			result = 0x100 + A - memoryRead(eazpxind());
-			NZFlags = result;
+			compare(A, memoryRead(eazpxind()));
 			clock += 6;
 			break;
 			
 		case 0xD1:	// CMP (zp),Y
-			result = 0x100 + A - memoryRead(eazpindy());
-			NZFlags = result;
+			compare(A, memoryRead(eazpindy()));
 			clock += 5;
 			break;
 			
 		case 0xD5:	// CMP zp,X
-			result = 0x100 + A - zeroPageRead(eazpx());
-			NZFlags = result;
+			compare(A, zeroPageRead(eazpx()));
 			clock += 4;
 			break;
 			
 		case 0xDD:	// CMP abs,X
-			result = 0x100 + A - memoryRead(eaabsx());
-			NZFlags = result;
+			compare(A, memoryRead(eaabsx()));
 			clock += 4;
 			break;
 			
 		case 0xD9:	// CMP abs,Y
-			result = 0x100 + A - memoryRead(eaabsy());
-			NZFlags = result;
+			compare(A, memoryRead(eaabsy()));
 			clock += 4;
 			break;
 			
 		case 0xE0:	// CPX #imm
-			result = 0x100 + X - eaimm();
-			NZFlags = result;
+			compare(X, eaimm());
 			clock += 2;
 			break;
 			
 		case 0xEC:	// CPX abs
-			result = 0x100 + X - memoryRead(eaabs());
-			NZFlags = result;
+			compare(X, memoryRead(eaabs()));
 			clock += 4;
 			break;
 			
 		case 0xE4:	// CPX zp
-			result = 0x100 + X - zeroPageRead(eazp());
-			NZFlags = result;
+			compare(X, zeroPageRead(eazp()));
 			clock += 3;
 			break;
 			
 		case 0xC0:	// CPY #imm
-			result = 0x100 + Y - eaimm();
-			NZFlags = result;
+			compare(Y, eaimm());
 			clock += 2;
 			break;
 			
 		case 0xCC:	// CPY abs
-			result = 0x100 + Y - memoryRead(eaabs());
-			NZFlags = result;
+			compare(Y, memoryRead(eaabs()));
 			clock += 4;
 			break;
 			
 		case 0xC4:	// CPY zp
-			result = 0x100+ Y - zeroPageRead(eazp());
-			NZFlags = result;
+			compare(Y, zeroPageRead(eazp()));
 			clock += 3;
 			break;
 			
 		case 0xCE:	// DEC abs
 			operandAddress = eaabs();
-			operand = memoryRead(operandAddress);
-			NZFlags = operand + 0xff;
-			memoryWrite(operandAddress, NZFlags);
+			memoryWrite(operandAddress, dec(memoryRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0xC6:	// DEC zp
 			operandAddress = eazp();
-			operand = zeroPageRead(operandAddress);
-			NZFlags = operand + 0xff;
-			zeroPageWrite(operandAddress, NZFlags);
+			zeroPageWrite(operandAddress, dec(zeroPageRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0xD6:	// DEC zp,X
 			operandAddress = eazpx();
-			operand = zeroPageRead(operandAddress);
-			NZFlags = operand + 0xff;
-			zeroPageWrite(operandAddress, NZFlags);
+			zeroPageWrite(operandAddress, dec(zeroPageRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0xDE:	// DEC abs,X
 			operandAddress = eaabsx();
-			operand = memoryRead(operandAddress);
-			NZFlags = operand + 0xff;
-			memoryWrite(operandAddress, NZFlags);
+			memoryWrite(operandAddress, dec(memoryRead(operandAddress)));
 			clock += 7;
 			break;
 			
 		case 0xCA:	// DEX
-			NZFlags = X + 0xff;
-			X = NZFlags & 0xff;
+			X = dec(X) & 0xff;
 			clock += 2;
 			break;
 			
 		case 0x88:	// DEY
-			NZFlags = Y + 0xff;
-			Y = NZFlags & 0xff;
+			Y = dec(Y) & 0xff;
 			clock += 2;
 			break;
 			
@@ -807,65 +1031,54 @@ public class Em6502 {
 			
 		case 0xEE:	// INC abs
 			operandAddress = eaabs();
-			operand = memoryRead(operandAddress);
-			NZFlags = operand + 1;
-			memoryWrite(operandAddress, NZFlags);
+			memoryWrite(operandAddress, inc(memoryRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0xE6:	// INC zp
 			operandAddress = eazp();
-			operand = zeroPageRead(operandAddress);
-			NZFlags = operand + 1;
-			zeroPageWrite(operandAddress, NZFlags);
+			zeroPageWrite(operandAddress, inc(zeroPageRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0xF6:	// INC zp,X
 			operandAddress = eazpx();
-			operand = zeroPageRead(operandAddress);
-			NZFlags = operand + 1;
-			zeroPageWrite(operandAddress, NZFlags);
+			zeroPageWrite(operandAddress, inc(zeroPageRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0xFE:	// INC abs,X
 			operandAddress = eaabsxNC();
-			operand = memoryRead(operandAddress);
-			NZFlags = operand + 1;
-			memoryWrite(operandAddress, NZFlags);
+			memoryWrite(operandAddress, inc(memoryRead(operandAddress)));
 			clock += 7;
 			break;
 			
 		case 0xE8:	// INX
-			NZFlags = X + 1;
-			X = NZFlags & 0xff;
+			X = inc(X) & 0xff;
 			clock += 2;
 			break;
 			
 		case 0xC8:	// INY
-			NZFlags = Y + 1;
-			Y = NZFlags & 0xff;
+			Y = inc(Y) & 0xff;
 			clock += 2;
 			break;
 			
 		case 0x4C:	// JMP abs
-			PC = eaabs();
+			operandAddress = eaabs();
 			clock += 3;
+			jump(operandAddress);
 			break;
 			
 		case 0x6C:	// JMP (abs)
-			PC = eaabsind();
+			operandAddress = eaabsind();
 			clock += 5;
+			jump(operandAddress);
 			break;
 			
 		case 0x20:	// JSR abs
 			operandAddress = eaabs();
-			PC--;
-			push(PC >> 8);
-			push(PC);
-			PC = operandAddress;
 			clock += 6;
+			jsr(operandAddress);
 			break;
 			
 		case 0xA9:	// LDA #imm
@@ -978,44 +1191,30 @@ public class Em6502 {
 			
 		case 0x4E:	// LSR abs
 			operandAddress = eaabs();
-			operand = memoryRead(operandAddress);
-			result = (operand & 0x01) << 8;	// just get the C bit
-			NZFlags = operand >> 1;		// result in NZFlags
-			memoryWrite(operandAddress, NZFlags);
+			memoryWrite(operandAddress, lsr(memoryRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0x46:	// LSR zp
 			operandAddress = eazp();
-			operand = zeroPageRead(operandAddress);
-			result = (operand & 0x01) << 8;	// just get the C bit
-			NZFlags = operand >> 1;		// result in NZFlags
-			zeroPageWrite(operandAddress, NZFlags);
+			zeroPageWrite(operandAddress, lsr(zeroPageRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0x4A:	// LSR acc
-			result = (A & 0x01) << 8;	// just get the C bit
-			A >>= 1;
-			NZFlags = A;
+			A = lsr(A);
 			clock += 2;
 			break;
 			
 		case 0x56:	// LSR zp,X
 			operandAddress = eazpx();
-			operand = zeroPageRead(operandAddress);
-			result = (operand & 0x01) << 8;	// just get the C bit
-			NZFlags = operand >> 1;		// result in NZFlags
-			zeroPageWrite(operandAddress, NZFlags);
+			zeroPageWrite(operandAddress, lsr(zeroPageRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0x5E:	// LSR abs,X
 			operandAddress = eaabsx();
-			operand = memoryRead(operandAddress);
-			result = (operand & 0x01) << 8;	// just get the C bit
-			NZFlags = operand >> 1;		// result in NZFlags
-			memoryWrite(operandAddress, NZFlags);
+			memoryWrite(operandAddress, lsr(memoryRead(operandAddress)));
 			clock += 7;
 			break;
 			
@@ -1077,10 +1276,7 @@ public class Em6502 {
 			break;
 			
 		case 0x08:	// PHP
-			setN(getFN());
-			setZ(getFZ());
-			setC(getFC());
-			push(P);
+			php();
 			clock += 3;
 			break;
 			
@@ -1091,199 +1287,117 @@ public class Em6502 {
 			break;
 			
 		case 0x28:	// PLP
-			P = pop() | FLAG_B | FLAG_R; // B and R always set
-			setFC(getC());
-			setFNZ(getN(), getZ());
 			clock += 4;
-			if ((pendingIRQ > 0) && !getI()) {
-				pendingIRQ--;
-				assertIRQ();
-			}
+			plp();
 			break;
 			
 		case 0x2E:	// ROL abs
 			operandAddress = eaabs();
-			operand = memoryRead(operandAddress);
-			result = (operand << 1) | getFC_();
-			NZFlags = result;
-			memoryWrite(operandAddress, result);
+			memoryWrite(operandAddress, rol(memoryRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0x26:	// ROL zp
 			operandAddress = eazp();
-			operand = zeroPageRead(operandAddress);
-			result = (operand << 1) | getFC_();
-			NZFlags = result;
-			zeroPageWrite(operandAddress, result);
+			zeroPageWrite(operandAddress, rol(zeroPageRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0x2A:	// ROL acc
-			result = (A << 1) | getFC_();
-			A = result & 0xff;
+			A = rol(A) & 0xff;
 			NZFlags = A;
 			clock += 2;
 			break;
 			
 		case 0x36:	// ROL zp,X
 			operandAddress = eazpx();
-			operand = zeroPageRead(operandAddress);
-			result = (operand << 1) | getFC_();
-			NZFlags = result;
-			zeroPageWrite(operandAddress, result);
+			zeroPageWrite(operandAddress, rol(zeroPageRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0x3E:	// ROL abs,X
 			operandAddress = eaabsx();
-			operand = memoryRead(operandAddress);
-			result = (operand << 1) | getFC_();
-			NZFlags = result;
-			memoryWrite(operandAddress, result);
+			memoryWrite(operandAddress, rol(memoryRead(operandAddress)));
 			clock += 7;
 			break;
 			
 		case 0x6E:	// ROR abs
 			operandAddress = eaabs();
-			operand = memoryRead(operandAddress);
-			result = ((operand & 0x01) << 8) | (getFC_() << 7) |
-				(operand >> 1);
-			NZFlags = result;
-			memoryWrite(operandAddress, result);
+			memoryWrite(operandAddress, ror(memoryRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0x66:	// ROR zp
 			operandAddress = eazp();
-			operand = zeroPageRead(operandAddress);
-			result = ((operand & 0x01) << 8) | (getFC_() << 7) |
-				(operand >> 1);
-			NZFlags = result;
-			zeroPageWrite(operandAddress, result);
+			zeroPageWrite(operandAddress, ror(zeroPageRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0x6A:	// ROR acc
-			result = ((A & 0x01) << 8) | (getFC_() << 7) | (A >> 1);
-			A = result & 0xff;
+			A = ror(A) & 0xff;
 			NZFlags = A;
 			clock += 2;
 			break;
 			
 		case 0x76:	// ROR zp,X
 			operandAddress = eazpx();
-			operand = zeroPageRead(operandAddress);
-			result = ((operand & 0x01) << 8) | (getFC_() << 7) |
-				(operand >> 1);
-			NZFlags = result;
-			zeroPageWrite(operandAddress, result);
+			zeroPageWrite(operandAddress, ror(zeroPageRead(operandAddress)));
 			clock += 6;
 			break;
 			
 		case 0x7E:	// ROR abs,X
 			operandAddress = eaabsx();
-			operand = memoryRead(operandAddress);
-			result = ((operand & 0x01) << 8) | (getFC_() << 7) |
-				(operand >> 1);
-			NZFlags = result;
-			memoryWrite(operandAddress, result);
+			memoryWrite(operandAddress, ror(memoryRead(operandAddress)));
 			clock += 7;
 			break;
 			
 		case 0x40:	// RTI
-			P = pop() | FLAG_B | FLAG_R; // B and R always set
-			setFC(getC());
-			setFNZ(getN(), getZ());
-			PC = pop();	// splitting is necessary
-			PC += pop() << 8;	// because of nested macros
+			rti();
 			clock += 6;
 			break;
 			
 		case 0x60:	// RTS
-			PC = pop();	// splitting is necessary
-			PC += pop() << 8;	// because of nested macros
-			PC++;
+			rts();
 			clock += 6;
 			break;
 			
 		case 0xE9:	// SBC #imm
-			operand = 255 - eaimm();
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(eaimm());
 			clock += 2;
 			break;
 			
 		case 0xED:	// SBC abs
-			operand = 255 - memoryRead(eaabs());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(memoryRead(eaabs()));
 			clock += 4;
 			break;
 			
 		case 0xE5:	// SBC zp
-			operand = 255 - zeroPageRead(eazp());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(zeroPageRead(eazp()));
 			clock += 3;
 			break;
 			
 		case 0xE1:	// SBC (zp,X)
-			operand = 255 - memoryRead(eazpxind());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(memoryRead(eazpxind()));
 			clock += 6;
 			break;
 			
 		case 0xF1:	// SBC (zp),Y
-			operand = 255 - memoryRead(eazpindy());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(memoryRead(eazpindy()));
 			clock += 5;
 			break;
 			
 		case 0xF5:	// SBC zp,X
-			operand = 255 - zeroPageRead(eazpx());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(zeroPageRead(eazpx()));
 			clock += 4;
 			break;
 			
 		case 0xFD:	// SBC abs,X
-			operand = 255 - memoryRead(eaabsx());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(memoryRead(eaabsx()));
 			clock += 4;
 			break;
 			
 		case 0xF9:	// SBC abs,Y
-			operand = 255 - memoryRead(eaabsy());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(memoryRead(eaabsy()));
 			clock += 4;
 			break;
 			
@@ -1408,12 +1522,7 @@ public class Em6502 {
 		 */	   
 
 		case 0x72:	// ADC (zp)
-			operand = memoryRead(eazpind());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			adcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			adc(memoryRead(eazpind()));
 			clock += 5;
 			break;
 			
@@ -1424,23 +1533,17 @@ public class Em6502 {
 			break;
 			
 		case 0x34:	// BIT zp,X
-			operand = zeroPageRead(eazpx());
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
+			bit(zeroPageRead(eazpx()));
 			clock += 3;
 			break;
 			
 		case 0x89:	// BIT #imm
-			operand = eaimm();
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
+			bit(eaimm());
 			clock += 2;
 			break;
 			
 		case 0x3C:	// BIT abs,X
-			operand = eaabsx();
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
+			bit(eaabsx());
 			clock += 4;
 			break;
 			
@@ -1451,14 +1554,12 @@ public class Em6502 {
 			break;
 			
 		case 0xD2:	// CMP (zp)
-			result = 0x100 + A - memoryRead(eazpind());
-			NZFlags = result;
+			compare(A, memoryRead(eazpind()));
 			clock += 5;
 			break;
 			
 		case 0x3A:	// DEA acc
-			NZFlags = A + 0xff;
-			A = NZFlags & 0xff;
+			A = dec(A) & 0xff;
 			clock += 2;
 			break;
 			
@@ -1469,14 +1570,14 @@ public class Em6502 {
 			break;
 			
 		case 0x1A:	// INA acc
-			NZFlags = A + 1;
-			A = NZFlags & 0xff;
+			A = inc(A) & 0xff;
 			clock += 2;
 			break;
 			
 		case 0x7C:	// JMP (abs,X)
-			PC = eaabsxind();
+			operandAddress = eaabsxind();
 			clock += 6;
+			jump(operandAddress);
 			break;
 			
 		case 0xB2:	// LDA (zp)
@@ -1514,12 +1615,7 @@ public class Em6502 {
 			break;
 			
 		case 0xF2:	// SBC (zp)
-			operand = 255 - memoryRead(eazpind());
-			result = operand + A + getFC_();
-			setV(!(((operand ^ A) & 0x80) != 0) && (((A ^ result) & 0x80) != 0));
-			sbcBCDAdjust();
-			A = result & 0xff;
-			NZFlags = A;
+			sbc(memoryRead(eazpind()));
 			clock += 5;
 			break;
 			
@@ -1550,37 +1646,25 @@ public class Em6502 {
 			
 		case 0x1C:	// TRB abs
 			operandAddress = eaabs();
-			operand = memoryRead(operandAddress);
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
-			memoryWrite(operandAddress, (operand & ~A) & 0xff);
+			memoryWrite(operandAddress, trb(memoryRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0x14:	// TRB zp
 			operandAddress = eazp();
-			operand = zeroPageRead(operandAddress);
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
-			zeroPageWrite(operandAddress, (operand & ~A) & 0xff);
+			zeroPageWrite(operandAddress, trb(zeroPageRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0x0C:	// TSB abs
 			operandAddress = eaabs();
-			operand = memoryRead(operandAddress);
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
-			memoryWrite(operandAddress, operand | A);
+			memoryWrite(operandAddress, tsb(memoryRead(operandAddress)));
 			clock += 5;
 			break;
 			
 		case 0x04:	// TSB zp
 			operandAddress = eazp();
-			operand = zeroPageRead(operandAddress);
-			setV((operand & 0x40) != 0); 
-			NZFlags = ((operand & 0x80) << 2) | (A & operand);
-			zeroPageWrite(operandAddress, operand | A);
+			zeroPageWrite(operandAddress, tsb(zeroPageRead(operandAddress)));
 			clock += 5;
 			break;
 
@@ -1591,26 +1675,1587 @@ public class Em6502 {
 //		if (PC == 0xB30)
 //			throw (new RuntimeException()); // TODO: for breakpoint hack - disable
 	}
-	
-	public final int executeInstructions(int num) {
-		// Initialize
-		int clockStart = clock;
 
-		for (; num >= 16; num -= 16) {
-			PC &= 0xffff;			// Keep PC "sort of" bounded
-			executeInstruction(); executeInstruction();
-			executeInstruction(); executeInstruction();
-			executeInstruction(); executeInstruction();
-			executeInstruction(); executeInstruction();
-			executeInstruction(); executeInstruction();
-			executeInstruction(); executeInstruction();
-			executeInstruction(); executeInstruction();
-		}
-		PC &= 0xffff;
-		for (; num > 0; num--)
-			executeInstruction();
+	/**
+	 * This executes a single pre-decoded instruction. PC must already point
+	 * past the instruction, and its clocks must already be charged.
+	 */
+	private final void executeDecodedInstruction(int decodedOpcode, int decodedOperand) {
+		switch(decodedOpcode) {
+		case 0x69:	// ADC #imm
+			adc(decodedOperand);
+			break;
+			
+		case 0x6D:	// ADC abs
+			adc(memoryRead(decodedOperand));
+			break;
+			
+		case 0x65:	// ADC zp
+			adc(zeroPageRead(decodedOperand));
+			break;
+			
+		case 0x61:	// ADC (zp,X)
+			adc(memoryRead(eazpxind(decodedOperand)));
+			break;
+			
+		case 0x71:	// ADC (zp),Y
+			adc(memoryRead(eazpindy(decodedOperand)));
+			break;
+			
+		case 0x75:	// ADC zp,X
+			adc(zeroPageRead(eazpx(decodedOperand)));
+			break;
+			
+		case 0x7D:	// ADC abs,X
+			adc(memoryRead(eaabsx(decodedOperand)));
+			break;
+			
+		case 0x79:	// ADC abs,Y
+			adc(memoryRead(eaabsy(decodedOperand)));
+			break;
+			
+		case 0x29:	// AND #imm
+			A &= decodedOperand;
+			NZFlags = A;
+			break;
+			
+		case 0x2D:	// AND abs
+			A &= memoryRead(decodedOperand);
+			NZFlags = A;
+			break;
+			
+		case 0x25:	// AND zp
+			A &= zeroPageRead(decodedOperand);
+			NZFlags = A;
+			break;
+			
+		case 0x21:	// AND (zp,X)
+			A &= memoryRead(eazpxind(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x31:	// AND (zp),Y
+			A &= memoryRead(eazpindy(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x35:	// AND zp,X
+			A &= zeroPageRead(eazpx(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x3D:	// AND abs,X
+			A &= memoryRead(eaabsx(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x39:	// AND abs,Y
+			A &= memoryRead(eaabsy(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x0E:	// ASL abs
+			operandAddress = decodedOperand;
+			memoryWrite(operandAddress, asl(memoryRead(operandAddress)));
+			break;
+			
+		case 0x06:	// ASL zp
+			operandAddress = decodedOperand;
+			zeroPageWrite(operandAddress, asl(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x0A:	// ASL acc
+			A = asl(A) & 0xff;
+			NZFlags = A;
+			break;
+			
+		case 0x16:	// ASL zp,X
+			operandAddress = eazpx(decodedOperand);
+			zeroPageWrite(operandAddress, asl(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x1E:	// ASL abs,X
+			operandAddress = eaabsx(decodedOperand);
+			memoryWrite(operandAddress, asl(memoryRead(operandAddress)));
+			break;
+			
+		case 0x90:	// BCC rr
+			if (getFNotC())
+				branch(decodedOperand);
+			break;
+			
+		case 0xB0:	// BCS rr
+			if (getFC())
+				branch(decodedOperand);
+			break;
+			
+		case 0xF0:	// BEQ rr
+			if (getFZ())
+				branch(decodedOperand);
+			break;
+			
+		case 0x2C:	// BIT abs
+			bit(memoryRead(decodedOperand));
+			break;
+			
+		case 0x24:	// BIT zp
+			bit(zeroPageRead(decodedOperand));
+			break;
+			
+		case 0x30:	// BMI rr
+			if (getFN())
+				branch(decodedOperand);
+			break;
+			
+		case 0xD0:	// BNE rr
+			if (getFNotZ())
+				branch(decodedOperand);
+			break;
+			
+		case 0x10:	// BPL rr
+			if (getFNotN())
+				branch(decodedOperand);
+			break;
+			
+		case 0x00:	// BRK
+			brk();
+			break;
+			
+		case 0x50:	// BVC rr
+			if (!getV())
+				branch(decodedOperand);
+			break;
+			
+		case 0x70:	// BVS rr
+			if (getV())
+				branch(decodedOperand);
+			break;
+			
+		case 0x18:	// CLC rr
+			setFC(false);
+			break;
+			
+		case 0xD8:	// CLD
+			setD(false);
+			break;
+			
+		case 0x58:	// CLI
+			cli();
+			break;
+			
+		case 0xB8:	// CLV
+			setV(false);
+			break;
+			
+		case 0xC9:	// CMP #imm
+			compare(A, decodedOperand);
+			break;
+			
+		case 0xCD:	// CMP abs
+			compare(A, memoryRead(decodedOperand));
+			break;
+			
+		case 0xC5:	// CMP zp
+			compare(A, zeroPageRead(decodedOperand));
+			break;
+			
+		case 0xC1:	// CMP (zp,X)
+			compare(A, memoryRead(eazpxind(decodedOperand)));
+			break;
+			
+		case 0xD1:	// CMP (zp),Y
+			compare(A, memoryRead(eazpindy(decodedOperand)));
+			break;
+			
+		case 0xD5:	// CMP zp,X
+			compare(A, zeroPageRead(eazpx(decodedOperand)));
+			break;
+			
+		case 0xDD:	// CMP abs,X
+			compare(A, memoryRead(eaabsx(decodedOperand)));
+			break;
+			
+		case 0xD9:	// CMP abs,Y
+			compare(A, memoryRead(eaabsy(decodedOperand)));
+			break;
+			
+		case 0xE0:	// CPX #imm
+			compare(X, decodedOperand);
+			break;
+			
+		case 0xEC:	// CPX abs
+			compare(X, memoryRead(decodedOperand));
+			break;
+			
+		case 0xE4:	// CPX zp
+			compare(X, zeroPageRead(decodedOperand));
+			break;
+			
+		case 0xC0:	// CPY #imm
+			compare(Y, decodedOperand);
+			break;
+			
+		case 0xCC:	// CPY abs
+			compare(Y, memoryRead(decodedOperand));
+			break;
+			
+		case 0xC4:	// CPY zp
+			compare(Y, zeroPageRead(decodedOperand));
+			break;
+			
+		case 0xCE:	// DEC abs
+			operandAddress = decodedOperand;
+			memoryWrite(operandAddress, dec(memoryRead(operandAddress)));
+			break;
+			
+		case 0xC6:	// DEC zp
+			operandAddress = decodedOperand;
+			zeroPageWrite(operandAddress, dec(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0xD6:	// DEC zp,X
+			operandAddress = eazpx(decodedOperand);
+			zeroPageWrite(operandAddress, dec(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0xDE:	// DEC abs,X
+			operandAddress = eaabsx(decodedOperand);
+			memoryWrite(operandAddress, dec(memoryRead(operandAddress)));
+			break;
+			
+		case 0xCA:	// DEX
+			X = dec(X) & 0xff;
+			break;
+			
+		case 0x88:	// DEY
+			Y = dec(Y) & 0xff;
+			break;
+			
+		case 0x49:	// EOR #imm
+			A ^= decodedOperand;
+			NZFlags = A;
+			break;
+			
+		case 0x4D:	// EOR abs
+			A ^= memoryRead(decodedOperand);
+			NZFlags = A;
+			break;
+			
+		case 0x45:	// EOR zp
+			A ^= zeroPageRead(decodedOperand);
+			NZFlags = A;
+			break;
+			
+		case 0x41:	// EOR (zp,X)
+			A ^= memoryRead(eazpxind(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x51:	// EOR (zp),Y
+			A ^= memoryRead(eazpindy(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x55:	// EOR zp,X
+			A ^= zeroPageRead(eazpx(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x5D:	// EOR abs,X
+			A ^= memoryRead(eaabsx(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x59:	// EOR abs,Y
+			A ^= memoryRead(eaabsy(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0xEE:	// INC abs
+			operandAddress = decodedOperand;
+			memoryWrite(operandAddress, inc(memoryRead(operandAddress)));
+			break;
+			
+		case 0xE6:	// INC zp
+			operandAddress = decodedOperand;
+			zeroPageWrite(operandAddress, inc(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0xF6:	// INC zp,X
+			operandAddress = eazpx(decodedOperand);
+			zeroPageWrite(operandAddress, inc(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0xFE:	// INC abs,X
+			operandAddress = eaabsx(decodedOperand);
+			memoryWrite(operandAddress, inc(memoryRead(operandAddress)));
+			break;
+			
+		case 0xE8:	// INX
+			X = inc(X) & 0xff;
+			break;
+			
+		case 0xC8:	// INY
+			Y = inc(Y) & 0xff;
+			break;
+			
+		case 0x4C:	// JMP abs
+			jump(decodedOperand);
+			break;
+			
+		case 0x6C:	// JMP (abs)
+			jump(eaabsind(decodedOperand));
+			break;
+			
+		case 0x20:	// JSR abs
+			jsr(decodedOperand);
+			break;
+			
+		case 0xA9:	// LDA #imm
+			A = decodedOperand;
+			NZFlags = A;
+			break;
+			
+		case 0xAD:	// LDA abs
+			A = memoryRead(decodedOperand);
+			NZFlags = A;
+			break;
+			
+		case 0xA5:	// LDA zp
+			A = zeroPageRead(decodedOperand);
+			NZFlags = A;
+			break;
+			
+		case 0xA1:	// LDA (zp,X)
+			A = memoryRead(eazpxind(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0xB1:	// LDA (zp),Y
+			A = memoryRead(eazpindy(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0xB5:	// LDA zp,X
+			A = zeroPageRead(eazpx(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0xBD:	// LDA abs,X
+			A = memoryRead(eaabsx(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0xB9:	// LDA abs,Y
+			A = memoryRead(eaabsy(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0xA2:	// LDX #imm
+			X = decodedOperand;
+			NZFlags = X;
+			break;
+			
+		case 0xAE:	// LDX abs
+			X = memoryRead(decodedOperand);
+			NZFlags = X;
+			break;
+			
+		case 0xA6:	// LDX zp
+			X = zeroPageRead(decodedOperand);
+			NZFlags = X;
+			break;
+			
+		case 0xBE:	// LDX abs,Y
+			X = memoryRead(eaabsy(decodedOperand));
+			NZFlags = X;
+			break;
+			
+		case 0xB6:	// LDX zp,Y
+			X = zeroPageRead(eazpy(decodedOperand));
+			NZFlags = X;
+			break;
+			
+		case 0xA0:	// LDY #imm
+			Y = decodedOperand;
+			NZFlags = Y;
+			break;
+			
+		case 0xAC:	// LDY abs
+			Y = memoryRead(decodedOperand);
+			NZFlags = Y;
+			break;
+			
+		case 0xA4:	// LDY zp
+			Y = zeroPageRead(decodedOperand);
+			NZFlags = Y;
+			break;
+			
+		case 0xB4:	// LDY zp,X
+			Y = zeroPageRead(eazpx(decodedOperand));
+			NZFlags = Y;
+			break;
+			
+		case 0xBC:	// LDY abs,X
+			Y = memoryRead(eaabsx(decodedOperand));
+			NZFlags = Y;
+			break;
+			
+		case 0x4E:	// LSR abs
+			operandAddress = decodedOperand;
+			memoryWrite(operandAddress, lsr(memoryRead(operandAddress)));
+			break;
+			
+		case 0x46:	// LSR zp
+			operandAddress = decodedOperand;
+			zeroPageWrite(operandAddress, lsr(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x4A:	// LSR acc
+			A = lsr(A);
+			break;
+			
+		case 0x56:	// LSR zp,X
+			operandAddress = eazpx(decodedOperand);
+			zeroPageWrite(operandAddress, lsr(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x5E:	// LSR abs,X
+			operandAddress = eaabsx(decodedOperand);
+			memoryWrite(operandAddress, lsr(memoryRead(operandAddress)));
+			break;
+			
+		case 0xEA:	// NOP
+			break;
+			
+		case 0x09:	// ORA #imm
+			A |= decodedOperand;
+			NZFlags = A;
+			break;
+			
+		case 0x0D:	// ORA abs
+			A |= memoryRead(decodedOperand);
+			NZFlags = A;
+			break;
+			
+		case 0x05:	// ORA zp
+			A |= zeroPageRead(decodedOperand);
+			NZFlags = A;
+			break;
+			
+		case 0x01:	// ORA (zp,X)
+			A |= memoryRead(eazpxind(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x11:	// ORA (zp),Y
+			A |= memoryRead(eazpindy(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x15:	// ORA zp,X
+			A |= zeroPageRead(eazpx(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x1D:	// ORA abs,X
+			A |= memoryRead(eaabsx(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x19:	// ORA abs,Y
+			A |= memoryRead(eaabsy(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x48:	// PHA
+			push(A);
+			break;
+			
+		case 0x08:	// PHP
+			php();
+			break;
+			
+		case 0x68:	// PLA
+			A = pop();
+			NZFlags = A;
+			break;
+			
+		case 0x28:	// PLP
+			plp();
+			break;
+			
+		case 0x2E:	// ROL abs
+			operandAddress = decodedOperand;
+			memoryWrite(operandAddress, rol(memoryRead(operandAddress)));
+			break;
+			
+		case 0x26:	// ROL zp
+			operandAddress = decodedOperand;
+			zeroPageWrite(operandAddress, rol(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x2A:	// ROL acc
+			A = rol(A) & 0xff;
+			NZFlags = A;
+			break;
+			
+		case 0x36:	// ROL zp,X
+			operandAddress = eazpx(decodedOperand);
+			zeroPageWrite(operandAddress, rol(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x3E:	// ROL abs,X
+			operandAddress = eaabsx(decodedOperand);
+			memoryWrite(operandAddress, rol(memoryRead(operandAddress)));
+			break;
+			
+		case 0x6E:	// ROR abs
+			operandAddress = decodedOperand;
+			memoryWrite(operandAddress, ror(memoryRead(operandAddress)));
+			break;
+			
+		case 0x66:	// ROR zp
+			operandAddress = decodedOperand;
+			zeroPageWrite(operandAddress, ror(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x6A:	// ROR acc
+			A = ror(A) & 0xff;
+			NZFlags = A;
+			break;
+			
+		case 0x76:	// ROR zp,X
+			operandAddress = eazpx(decodedOperand);
+			zeroPageWrite(operandAddress, ror(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x7E:	// ROR abs,X
+			operandAddress = eaabsx(decodedOperand);
+			memoryWrite(operandAddress, ror(memoryRead(operandAddress)));
+			break;
+			
+		case 0x40:	// RTI
+			rti();
+			break;
+			
+		case 0x60:	// RTS
+			rts();
+			break;
+			
+		case 0xE9:	// SBC #imm
+			sbc(decodedOperand);
+			break;
+			
+		case 0xED:	// SBC abs
+			sbc(memoryRead(decodedOperand));
+			break;
+			
+		case 0xE5:	// SBC zp
+			sbc(zeroPageRead(decodedOperand));
+			break;
+			
+		case 0xE1:	// SBC (zp,X)
+			sbc(memoryRead(eazpxind(decodedOperand)));
+			break;
+			
+		case 0xF1:	// SBC (zp),Y
+			sbc(memoryRead(eazpindy(decodedOperand)));
+			break;
+			
+		case 0xF5:	// SBC zp,X
+			sbc(zeroPageRead(eazpx(decodedOperand)));
+			break;
+			
+		case 0xFD:	// SBC abs,X
+			sbc(memoryRead(eaabsx(decodedOperand)));
+			break;
+			
+		case 0xF9:	// SBC abs,Y
+			sbc(memoryRead(eaabsy(decodedOperand)));
+			break;
+			
+		case 0x38:	// SEC
+			setFC(true);
+			break;
+			
+		case 0xF8:	// SED
+			setD(true);
+			break;
+			
+		case 0x78:	// SEI
+			setI(true);
+			break;
+			
+		case 0x8D:	// STA abs
+			memoryWrite(decodedOperand, A);
+			break;
+			
+		case 0x85:	// STA zp
+			zeroPageWrite(decodedOperand, A);
+			break;
+			
+		case 0x81:	// STA (zp,X)
+			memoryWrite(eazpxind(decodedOperand), A);
+			break;
+			
+		case 0x91:	// STA (zp),Y
+			memoryWrite(eazpindy(decodedOperand), A);
+			break;
+			
+		case 0x95:	// STA zp,X
+			zeroPageWrite(eazpx(decodedOperand), A);
+			break;
+			
+		case 0x9D:	// STA abs,X
+			memoryWrite(eaabsx(decodedOperand), A);
+			break;
+			
+		case 0x99:	// STA abs,Y
+			memoryWrite(eaabsy(decodedOperand), A);
+			break;
+			
+		case 0x8E:	// STX abs
+			memoryWrite(decodedOperand, X);
+			break;
+			
+		case 0x86:	// STX zp
+			zeroPageWrite(decodedOperand, X);
+			break;
+			
+		case 0x96:	// STX zp,Y
+			zeroPageWrite(eazpy(decodedOperand), X);
+			break;
+			
+		case 0x8C:	// STY abs
+			memoryWrite(decodedOperand, Y);
+			break;
+			
+		case 0x84:	// STY zp
+			zeroPageWrite(decodedOperand, Y);
+			break;
+			
+		case 0x94:	// STY zp,X
+			zeroPageWrite(eazpx(decodedOperand), Y);
+			break;
+			
+		case 0xAA:	// TAX
+			X = A;
+			NZFlags = X;
+			break;
+			
+		case 0xA8:	// TAY
+			Y = A;
+			NZFlags = Y;
+			break;
+			
+		case 0xBA:	// TSX
+			X = S;
+			NZFlags = X;
+			break;
+			
+		case 0x8A:	// TXA
+			A = X;
+			NZFlags = A;
+			break;
+			
+		case 0x9A:	// TXS
+			S = X;
+			break;
+			
+		case 0x98:	// TYA
+			A = Y;
+			NZFlags = A;
+			break;
+			
+		/*
+		 * 65C02 instructions
+		 * note: timing is not correct
+		 */	   
+
+		case 0x72:	// ADC (zp)
+			adc(memoryRead(eazpind(decodedOperand)));
+			break;
+			
+		case 0x32:	// AND (zp)
+			A &= memoryRead(eazpind(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x34:	// BIT zp,X
+			bit(zeroPageRead(eazpx(decodedOperand)));
+			break;
+			
+		case 0x89:	// BIT #imm
+			bit(decodedOperand);
+			break;
+			
+		case 0x3C:	// BIT abs,X
+			bit(eaabsx(decodedOperand));
+			break;
+			
+		case 0x80:	// BRA rr
+			branch(decodedOperand);
+			break;
+			
+		case 0xD2:	// CMP (zp)
+			compare(A, memoryRead(eazpind(decodedOperand)));
+			break;
+			
+		case 0x3A:	// DEA acc
+			A = dec(A) & 0xff;
+			break;
+			
+		case 0x52:	// EOR (zp)
+			A ^= memoryRead(eazpind(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x1A:	// INA acc
+			A = inc(A) & 0xff;
+			break;
+			
+		case 0x7C:	// JMP (abs,X)
+			jump(eaabsxind(decodedOperand));
+			break;
+			
+		case 0xB2:	// LDA (zp)
+			A = memoryRead(eazpind(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0x12:	// ORA (zp)
+			A |= memoryRead(eazpind(decodedOperand));
+			NZFlags = A;
+			break;
+			
+		case 0xDA:	// PHX
+			push(X);
+			break;
+			
+		case 0xFA:	// PLX
+			X = pop();
+			NZFlags = X;
+			break;
+			
+		case 0x5A:	// PHY
+			push(Y);
+			break;
+			
+		case 0x7A:	// PLY
+			Y = pop();
+			NZFlags = Y;
+			break;
+			
+		case 0xF2:	// SBC (zp)
+			sbc(memoryRead(eazpind(decodedOperand)));
+			break;
+			
+		case 0x92:	// STA (zp)
+			memoryWrite(eazpind(decodedOperand), A);
+			break;
+			
+		case 0x9C:	// STZ abs
+			memoryWrite(decodedOperand, 0);
+			break;
+			
+		case 0x64:	// STZ zp
+			zeroPageWrite(decodedOperand, 0);
+			break;
+			
+		case 0x74:	// STZ zp,X
+			zeroPageWrite(eazpx(decodedOperand), 0);
+			break;
+			
+		case 0x9E:	// STZ abs,X
+			memoryWrite(eaabsx(decodedOperand), 0);
+			break;
+			
+		case 0x1C:	// TRB abs
+			operandAddress = decodedOperand;
+			memoryWrite(operandAddress, trb(memoryRead(operandAddress)));
+			break;
+			
+		case 0x14:	// TRB zp
+			operandAddress = decodedOperand;
+			zeroPageWrite(operandAddress, trb(zeroPageRead(operandAddress)));
+			break;
+			
+		case 0x0C:	// TSB abs
+			operandAddress = decodedOperand;
+			memoryWrite(operandAddress, tsb(memoryRead(operandAddress)));
+			break;
+			
+		case 0x04:	// TSB zp
+			operandAddress = decodedOperand;
+			zeroPageWrite(operandAddress, tsb(zeroPageRead(operandAddress)));
+			break;
+
+		default:	// unknown instructions
+		}
+	}
+	
+	public final int executeInstructions(int num) {
+		// Initialize
+		long clockStart = clock;
+
+		for (; num >= 16; num -= 16) {
+			PC &= 0xffff;			// Keep PC "sort of" bounded
+			executeInstruction(); executeInstruction();
+			executeInstruction(); executeInstruction();
+			executeInstruction(); executeInstruction();
+			executeInstruction(); executeInstruction();
+			executeInstruction(); executeInstruction();
+			executeInstruction(); executeInstruction();
+			executeInstruction(); executeInstruction();
+		}
+		PC &= 0xffff;
+		for (; num > 0; num--)
+			executeInstruction();
+
+		return (int) (clock - clockStart);
+	}
+
+	/**
+	 * Fetches the operand bytes of the instruction at address
+	 * (relative operands are sign extended)
+	 */
+	private final int fetchOperand(int address, int opcode) {
+		switch (INSTRUCTION_LENGTHS[opcode]) {
+		case 2:
+			if (((opcode & 0x1f) == 0x10) || (opcode == 0x80))
+				return (byte) memoryRead(address + 1);
+			return memoryRead(address + 1);
+		case 3:
+			return memoryRead(address + 1) | (memoryRead(address + 2) << 8);
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Decodes the instruction at address into the decode cache
+	 * (returns false if it can't be cached)
+	 */
+	private final boolean decodeInstruction(int address) {
+		int page = address >> 8;
+		if (!isCodeCacheable(page))
+			return false;
+
+		int handler = memoryRead(address);
+		if (((address + INSTRUCTION_LENGTHS[handler] - 1) >> 8) != page)
+			return false;
+
+		decodeHandler[address] = handler;
+		decodeOperand[address] = fetchOperand(address, handler);
+		decodeCycles[address] = INSTRUCTION_CYCLES[handler];
+		decodeGeneration[address] = codeGeneration[page];
+
+		if (isLoopAcceleration && (getMemoryLoop(address) != 0)) {
+			decodeHandler[address] = MEMORY_LOOP;
+			decodeCycles[address] = 0;
+		} else if (isInstructionFusion)
+			fuseInstruction(address);
+
+		return true;
+	}
+
+	/**
+	 * Fuses the decoded instruction at address with the next one,
+	 * if the pair is a known idiom within the same page
+	 */
+	private final void fuseInstruction(int address) {
+		int page = address >> 8;
+		int first = decodeHandler[address];
+		int next = address + INSTRUCTION_LENGTHS[first];
+		if ((next >> 8) != page)
+			return;
+
+		int second = memoryRead(next);
+		if (((next + INSTRUCTION_LENGTHS[second] - 1) >> 8) != page)
+			return;
+
+		int firstOperand = decodeOperand[address];
+		int secondOperand = fetchOperand(next, second);
+		int handler, operand;
+		switch ((first << 8) | second) {
+		case 0xa985:	// LDA #imm; STA zp
+			handler = FUSED_LDAIMM_STAZP;
+			operand = firstOperand | (secondOperand << 8);
+			break;
+		case 0xa98d:	// LDA #imm; STA abs
+			if ((secondOperand >> 8) == ioPage)
+				return;
+			handler = FUSED_LDAIMM_STAABS;
+			operand = firstOperand | (secondOperand << 8);
+			break;
+		case 0xa585:	// LDA zp; STA zp
+			handler = FUSED_LDAZP_STAZP;
+			operand = firstOperand | (secondOperand << 8);
+			break;
+		case 0xad8d:	// LDA abs; STA abs
+			if (((firstOperand >> 8) == ioPage) || ((secondOperand >> 8) == ioPage))
+				return;
+			handler = FUSED_LDAABS_STAABS;
+			operand = firstOperand | (secondOperand << 16);
+			break;
+		case 0xcad0:	// DEX; BNE rr
+			handler = FUSED_DEX_BNE;
+			operand = secondOperand;
+			break;
+		case 0x88d0:	// DEY; BNE rr
+			handler = FUSED_DEY_BNE;
+			operand = secondOperand;
+			break;
+		case 0xe8d0:	// INX; BNE rr
+			handler = FUSED_INX_BNE;
+			operand = secondOperand;
+			break;
+		case 0xc8d0:	// INY; BNE rr
+			handler = FUSED_INY_BNE;
+			operand = secondOperand;
+			break;
+		case 0xe6d0:	// INC zp; BNE rr
+			handler = FUSED_INCZP_BNE;
+			operand = firstOperand | (secondOperand << 8);
+			break;
+		case 0xc9f0:	// CMP #imm; BEQ rr
+			handler = FUSED_CMPIMM_BEQ;
+			operand = firstOperand | (secondOperand << 8);
+			break;
+		case 0xc9d0:	// CMP #imm; BNE rr
+			handler = FUSED_CMPIMM_BNE;
+			operand = firstOperand | (secondOperand << 8);
+			break;
+		default:
+			return;
+		}
+
+		decodeHandler[address] = handler;
+		decodeOperand[address] = operand;
+		decodeCycles[address] += INSTRUCTION_CYCLES[second];
+	}
+
+	/**
+	 * Executes a fused instruction pair with the same instruction bodies as
+	 * the other engines (PC already points past the pair, branch offsets
+	 * are in the high bits of the operand)
+	 */
+	private final void executeFusedInstruction(int handler, int fusedOperand) {
+		switch (handler) {
+		case FUSED_LDAIMM_STAZP:
+			A = fusedOperand & 0xff;
+			NZFlags = A;
+			zeroPageWrite(fusedOperand >> 8, A);
+			break;
+
+		case FUSED_LDAIMM_STAABS:
+			A = fusedOperand & 0xff;
+			NZFlags = A;
+			memoryWrite(fusedOperand >> 8, A);
+			break;
+
+		case FUSED_LDAZP_STAZP:
+			A = zeroPageRead(fusedOperand & 0xff);
+			NZFlags = A;
+			zeroPageWrite(fusedOperand >> 8, A);
+			break;
+
+		case FUSED_LDAABS_STAABS:
+			A = memoryRead(fusedOperand & 0xffff);
+			NZFlags = A;
+			memoryWrite(fusedOperand >>> 16, A);
+			break;
+
+		case FUSED_DEX_BNE:
+			X = dec(X) & 0xff;
+			if (getFNotZ())
+				branch(fusedOperand);
+			break;
+
+		case FUSED_DEY_BNE:
+			Y = dec(Y) & 0xff;
+			if (getFNotZ())
+				branch(fusedOperand);
+			break;
+
+		case FUSED_INX_BNE:
+			X = inc(X) & 0xff;
+			if (getFNotZ())
+				branch(fusedOperand);
+			break;
+
+		case FUSED_INY_BNE:
+			Y = inc(Y) & 0xff;
+			if (getFNotZ())
+				branch(fusedOperand);
+			break;
+
+		case FUSED_INCZP_BNE:
+			operandAddress = fusedOperand & 0xff;
+			zeroPageWrite(operandAddress, inc(zeroPageRead(operandAddress)));
+			if (getFNotZ())
+				branch(fusedOperand >> 8);
+			break;
+
+		case FUSED_CMPIMM_BEQ:
+			compare(A, fusedOperand & 0xff);
+			if (getFZ())
+				branch(fusedOperand >> 8);
+			break;
+
+		case FUSED_CMPIMM_BNE:
+			compare(A, fusedOperand & 0xff);
+			if (getFNotZ())
+				branch(fusedOperand >> 8);
+			break;
+		}
+	}
+
+	/**
+	 * Recognizes a memory fill or copy loop at address:
+	 *
+	 *   [LDA src] STA dest IN(C/D)(X/Y) BNE address
+	 *
+	 * with src and dest indexed by the same register (abs,X, abs,Y or
+	 * (zp),Y), all within one page. Returns the loop length in bytes
+	 * (or 0), leaving its description in the loop fields.
+	 */
+	private final int getMemoryLoop(int address) {
+		int pc = address;
+		int opcode = memoryRead(pc);
+		int sourceIndex = -1;
+
+		loopSourceMode = LOOP_NONE;
+		loopClocks = 0;
+		if ((opcode == 0xbd) || (opcode == 0xb9) || (opcode == 0xb1)) {
+			loopSourceMode = (opcode == 0xb1) ? LOOP_ZPIND : LOOP_ABS;
+			loopSource = fetchOperand(pc, opcode);
+			sourceIndex = (opcode == 0xbd) ? 0 : 1;
+			loopClocks += INSTRUCTION_CYCLES[opcode];
+			pc += INSTRUCTION_LENGTHS[opcode];
+			opcode = memoryRead(pc);
+		}
+
+		if ((opcode != 0x9d) && (opcode != 0x99) && (opcode != 0x91))
+			return 0;
+		loopDestMode = (opcode == 0x91) ? LOOP_ZPIND : LOOP_ABS;
+		loopDest = fetchOperand(pc, opcode);
+		loopIndexY = (opcode != 0x9d);
+		if ((sourceIndex != -1) && (sourceIndex != (loopIndexY ? 1 : 0)))
+			return 0;
+		loopClocks += INSTRUCTION_CYCLES[opcode];
+		pc += INSTRUCTION_LENGTHS[opcode];
+
+		opcode = memoryRead(pc);
+		if (opcode == (loopIndexY ? 0xc8 : 0xe8))
+			loopStep = 1;
+		else if (opcode == (loopIndexY ? 0x88 : 0xca))
+			loopStep = -1;
+		else
+			return 0;
+		loopClocks += INSTRUCTION_CYCLES[opcode];
+		pc++;
+
+		if ((memoryRead(pc) != 0xd0) || (((pc + 2 + (byte) memoryRead(pc + 1)) & 0xffff) != address))
+			return 0;
+		loopClocks += INSTRUCTION_CYCLES[0xd0];
+		pc += 2;
+
+		if (((pc - 1) >> 8) != (address >> 8))
+			return 0;
+
+		return pc - address;
+	}
+
+	/**
+	 * Runs the remaining iterations of the memory loop at address in bulk
+	 * (returns false if it has to be interpreted)
+	 */
+	private final boolean executeMemoryLoop(int address) {
+		int length = getMemoryLoop(address);
+		if (length == 0)
+			return false;
+
+		int index = loopIndexY ? Y : X;
+		int count, offset, lastOffset;
+		if (loopStep > 0) {
+			count = 0x100 - index;
+			offset = index;
+			lastOffset = 0xff;
+		} else {
+			count = (index == 0) ? 0x100 : index;
+			offset = (index == 0) ? 0 : 1;
+			lastOffset = 1;
+		}
+
+		int dest = getLoopBase(loopDestMode, loopDest) + offset;
+		if (((dest + count - 1) > 0xffff) || (dest < 0x200) ||
+			((dest <= (address | 0xff)) && ((dest + count) > (address & 0xff00))))
+			return false;
+
+		if (loopSourceMode == LOOP_NONE) {
+			if (!fillMemory(dest, count, A))
+				return false;
+		} else {
+			int source = getLoopBase(loopSourceMode, loopSource) + offset;
+			if (((source + count - 1) > 0xffff) ||
+				((source < (dest + count)) && (dest < (source + count))) ||
+				!copyMemory(dest, source, count))
+				return false;
+			A = memoryRead(source - offset + lastOffset);
+		}
+
+		if (loopIndexY)
+			Y = 0;
+		else
+			X = 0;
+		NZFlags = 0x100;
+		PC = address + length;
+		clock += count * loopClocks + (count - 1);
+		loopCount++;
+
+		return true;
+	}
+
+	/**
+	 * Base address of a loop operand
+	 */
+	private final int getLoopBase(int mode, int operand) {
+		if (mode == LOOP_ZPIND)
+			return zeroPageRead(operand) | (zeroPageRead((operand + 1) & 0xff) << 8);
+		return operand;
+	}
+
+	/**
+	 * Bulk memory fill and copy (return false if the range can't be
+	 * done in bulk, before changing anything)
+	 */
+	protected boolean fillMemory(int address, int length, int value) {
+		for (int page = address >> 8; page <= ((address + length - 1) >> 8); page++)
+			if (page == ioPage)
+				return false;
+
+		Arrays.fill(mem, address, address + length, (byte) value);
+		for (int page = address >> 8; page <= ((address + length - 1) >> 8); page++)
+			codeGeneration[page]++;
+
+		return true;
+	}
+	protected boolean copyMemory(int dest, int source, int length) {
+		for (int page = dest >> 8; page <= ((dest + length - 1) >> 8); page++)
+			if (page == ioPage)
+				return false;
+		for (int page = source >> 8; page <= ((source + length - 1) >> 8); page++)
+			if (page == ioPage)
+				return false;
+
+		System.arraycopy(mem, source, mem, dest, length);
+		for (int page = dest >> 8; page <= ((dest + length - 1) >> 8); page++)
+			codeGeneration[page]++;
+
+		return true;
+	}
+
+	/**
+	 * Registers a native handler for the routine at address (disabled)
+	 *
+	 * @param	address	Routine entry point
+	 * @param	trap	Handler
+	 * @param	cycles	Clocks charged per call, in addition to the RTS
+	 */
+	public void setTrap(int address, CpuTrap trap, int cycles) {
+		if (trapRegistry == null) {
+			trapRegistry = new CpuTrap[0x10000];
+			trapCycles = new int[0x10000];
+		}
+
+		setTrapEnabled(address, false);
+		trapRegistry[address & 0xffff] = trap;
+		trapCycles[address & 0xffff] = cycles;
+	}
+
+	/**
+	 * Enable or disable the trap registered at address
+	 */
+	public void setTrapEnabled(int address, boolean value) {
+		address &= 0xffff;
+		if ((trapRegistry == null) || (trapRegistry[address] == null) ||
+			(getTrapEnabled(address) == value))
+			return;
+
+		if (value) {
+			if (traps == null)
+				traps = new CpuTrap[0x10000];
+			traps[address] = trapRegistry[address];
+			trapsEnabled++;
+		} else {
+			traps[address] = null;
+			if (--trapsEnabled == 0)
+				traps = null;
+		}
+	}
+
+	/**
+	 * Get trap enable state
+	 */
+	public boolean getTrapEnabled(int address) {
+		return (traps != null) && (traps[address & 0xffff] != null);
+	}
+
+	/**
+	 * Runs the trap at PC (if any) and returns from the trapped routine
+	 */
+	private final void executeTrap() {
+		int address = PC & 0xffff;
+		CpuTrap trap = traps[address];
+
+		if ((trap == null) || !trap.trap(this))
+			return;
+
+		// Handler ran the routine on the CPU itself?
+		if (PC == address) {
+			PC = pop();
+			PC += pop() << 8;
+			PC++;
+			clock += trapCycles[address] + 6;
+		}
+		trapCount++;
+	}
+
+	/**
+	 * Interprets the routine at PC until it returns (for trap handlers
+	 * that check themselves against the guest code). Traps are not taken
+	 * meanwhile. Returns false if the routine didn't return in time.
+	 */
+	protected final boolean executeRoutine(int clocks) {
+		CpuTrap[] savedTraps = traps;
+		int returnS = (S + 2) & 0xff;
+		long clockEnd = clock + clocks;
+
+		traps = null;
+		do {
+			executeInstruction();
+			PC &= 0xffff;
+		} while (((opcode != 0x60) || (S != returnS)) && (clock < clockEnd));
+		traps = savedTraps;
+
+		return (opcode == 0x60) && (S == returnS);
+	}
+
+	/**
+	 * Set memory loop acceleration (for the pre-decoded engine)
+	 */
+	public void setLoopAcceleration(boolean value) {
+		isLoopAcceleration = value;
+		invalidateCode();
+	}
+
+	/**
+	 * Get memory loop acceleration
+	 */
+	public boolean getLoopAcceleration() {
+		return isLoopAcceleration;
+	}
+
+	/**
+	 * Set instruction fusion (for the pre-decoded engine)
+	 */
+	public void setInstructionFusion(boolean value) {
+		isInstructionFusion = value;
+		invalidateCode();
+	}
+
+	/**
+	 * Get instruction fusion
+	 */
+	public boolean getInstructionFusion() {
+		return isInstructionFusion;
+	}
+
+	/**
+	 * Executes instructions from the decode cache, decoding each address
+	 * once (until its page is written to)
+	 */
+	public final int executeDecodedInstructions(int num) {
+		long clockStart = clock;
+
+		if (decodeHandler == null) {
+			decodeHandler = new int[0x10000];
+			decodeOperand = new int[0x10000];
+			decodeCycles = new int[0x10000];
+			decodeGeneration = new int[0x10000];
+			for (int address = 0; address < 0x10000; address++)
+				decodeGeneration[address] = codeGeneration[address >> 8] - 1;
+		}
+
+		dispatchCount += num;
+		for (; num > 0; num--) {
+			PC &= 0xffff;
+			int address = PC;
+
+			if ((decodeGeneration[address] != codeGeneration[address >> 8]) &&
+				!decodeInstruction(address)) {
+				executeInstruction();
+				continue;
+			}
+
+			int handler = decodeHandler[address];
+			clock += decodeCycles[address];
+			if (handler < FUSED_BASE) {
+				PC = address + INSTRUCTION_LENGTHS[handler];
+				executeDecodedInstruction(handler, decodeOperand[address]);
+			} else if (handler == MEMORY_LOOP) {
+				if (!executeMemoryLoop(address)) {
+					PC = address;
+					executeInstruction();
+				}
+			} else {
+				PC = address + FUSED_LENGTHS[handler - FUSED_BASE];
+				executeFusedInstruction(handler, decodeOperand[address]);
+				fusedCount++;
+			}
+		}
+
+		return (int) (clock - clockStart);
+	}
+
+	/**
+	 * Cycle-exact tier
+	 *
+	 * Runs the same handlers as the fast engines, adding the page crossing
+	 * penalties of indexed reads and taken branches, and the NMOS
+	 * read-modify-write dummy write. Clocks are charged up to the
+	 * instruction's last bus cycle before it runs, so peripherals see the
+	 * clock of the actual access. Kept separate from the other engines so
+	 * they pay nothing for it.
+	 */
+	public final int executeAccurateInstructions(int num) {
+		long clockStart = clock;
+
+		for (; num > 0; num--) {
+			PC &= 0xffff;
+			int address = PC;
+			int opcode = memoryRead(address);
+			int operand = fetchOperand(address, opcode);
+			int cycles = INSTRUCTION_CYCLES[opcode];
+			int nextPC = address + INSTRUCTION_LENGTHS[opcode];
+			int base;
+
+			PC = nextPC;
+			switch (INSTRUCTION_TIMING[opcode]) {
+			case TIMING_ABSX:
+				if (((operand ^ (operand + X)) & 0xff00) != 0)
+					cycles++;
+				break;
+			case TIMING_ABSY:
+				if (((operand ^ (operand + Y)) & 0xff00) != 0)
+					cycles++;
+				break;
+			case TIMING_ZPINDY:
+				base = zeroPageRead(operand) | (zeroPageRead((operand + 1) & 0xff) << 8);
+				if (((base ^ (base + Y)) & 0xff00) != 0)
+					cycles++;
+				break;
+			case TIMING_BRANCH:
+				clock += cycles - 1;
+				executeDecodedInstruction(opcode, operand);
+				if (((PC ^ nextPC) & 0xff00) != 0)
+					clock++;
+				clock++;
+				continue;
+			case TIMING_RMW:
+				clock += cycles - 3;
+				readModifyWrite(opcode, operand);
+				continue;
+			case TIMING_RMWX:
+				clock += cycles - 3;
+				readModifyWrite(opcode, operand + X);
+				continue;
+			}
+
+			clock += cycles - 1;
+			executeDecodedInstruction(opcode, operand);
+			clock++;
+		}
+
+		return (int) (clock - clockStart);
+	}
+
+	/**
+	 * NMOS read-modify-write bus cycles (read, write back, write result)
+	 * for ASL, ROL, LSR, ROR, DEC and INC
+	 */
+	private final void readModifyWrite(int opcode, int address) {
+		operand = memoryRead(address);
+		clock++;
+		memoryWrite(address, operand);
+		clock++;
+
+		switch (opcode & 0xe0) {
+		case 0x00:	// ASL
+			asl(operand);
+			break;
+		case 0x20:	// ROL
+			rol(operand);
+			break;
+		case 0x40:	// LSR
+			lsr(operand);
+			break;
+		case 0x60:	// ROR
+			ror(operand);
+			break;
+		case 0xc0:	// DEC
+			dec(operand);
+			break;
+		default:	// INC
+			inc(operand);
+		}
+
+		memoryWrite(address, NZFlags);
+		clock++;
+	}
+
+	/**
+	 * Code cache invalidation (for memory changed behind memoryWrite's back)
+	 */
+	protected void invalidateCode() {
+		for (int page = 0; page < codeGeneration.length; page++)
+			codeGeneration[page]++;
+	}
+
+	/**
+	 * Can code in this page be cached?
+	 * (Zero page and stack writes don't go through memoryWrite)
+	 */
+	protected boolean isCodeCacheable(int page) {
+		return (page > 0x01) && (page < 0x100);
+	}
+
+	/**
+	 * Does this instruction end a basic block?
+	 */
+	private static final boolean isBlockEnd(int opcode) {
+		switch (opcode) {
+		case 0x00:	// BRK
+		case 0x10: case 0x30: case 0x50: case 0x70:
+		case 0x80: case 0x90: case 0xB0: case 0xD0: case 0xF0:
+		case 0x20:	// JSR
+		case 0x40:	// RTI
+		case 0x4C: case 0x6C: case 0x7C: // JMP
+		case 0x60:	// RTS
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Translates the basic block at address (or returns null)
+	 */
+	private final int[] translateBlock(int address) {
+		int startPage = address >> 8;
+		int pc = address;
+		int length = BLOCK_HEADER_SIZE;
+
+		for (int count = 0; count < BLOCK_MAX_INSTRUCTIONS; count++) {
+			int page = pc >> 8;
+			if ((page > startPage + 1) || !isCodeCacheable(page))
+				break;
+
+			int blockOpcode = memoryRead(pc);
+			int nextPC = pc + INSTRUCTION_LENGTHS[blockOpcode];
+			int lastPage = (nextPC - 1) >> 8;
+			if ((lastPage > startPage + 1) || !isCodeCacheable(lastPage))
+				break;
+
+			blockBuffer[length++] = blockOpcode;
+			blockBuffer[length++] = fetchOperand(pc, blockOpcode);
+			blockBuffer[length++] = nextPC;
+			pc = nextPC;
+
+			if (isBlockEnd(blockOpcode))
+				break;
+		}
+
+		if (length == BLOCK_HEADER_SIZE)
+			return null;
+
+		int[] block = new int[length];
+		System.arraycopy(blockBuffer, 0, block, 0, length);
+		block[BLOCK_END_PAGE] = (block[length - 1] - 1) >> 8;
+		block[BLOCK_START_GENERATION] = codeGeneration[startPage];
+		block[BLOCK_END_GENERATION] = codeGeneration[block[BLOCK_END_PAGE]];
+
+		return block;
+	}
+
+	/**
+	 * Runs a cached block from PC
+	 */
+	private final void executeBlock(int[] block) {
+		int startPage = PC >> 8;
+		int endPage = block[BLOCK_END_PAGE];
+
+		for (int index = BLOCK_HEADER_SIZE; index < block.length; index += 3) {
+			int blockOpcode = block[index];
+			PC = block[index + 2];
+			clock += INSTRUCTION_CYCLES[blockOpcode];
+			executeDecodedInstruction(blockOpcode, block[index + 1]);
+
+			// Block modified itself?
+			if ((codeGeneration[startPage] != block[BLOCK_START_GENERATION]) ||
+				(codeGeneration[endPage] != block[BLOCK_END_GENERATION]))
+				break;
+		}
+	}
+
+	/**
+	 * Interprets from PC up to the end of a basic block
+	 */
+	private final void interpretBlock() {
+		int count = BLOCK_MAX_INSTRUCTIONS;
+
+		do {
+			executeInstruction();
+			PC &= 0xffff;
+		} while (!isBlockEnd(opcode) && (--count > 0));
+	}
+
+	/**
+	 * Executes at least the given number of clocks, running hot basic
+	 * blocks from the block cache and interpreting cold code
+	 */
+	public final int executeBlocks(int clocks) {
+		long clockStart = clock;
+
+		if (blockCache == null) {
+			blockCache = new int[0x10000][];
+			blockHeat = new int[0x10000];
+			blockBuffer = new int[BLOCK_HEADER_SIZE + BLOCK_MAX_INSTRUCTIONS * 3];
+		}
+
+		PC &= 0xffff;
+		while ((clock - clockStart) < clocks) {
+			int[] block = blockCache[PC];
+
+			if ((block != null) &&
+				((codeGeneration[PC >> 8] != block[BLOCK_START_GENERATION]) ||
+				(codeGeneration[block[BLOCK_END_PAGE]] != block[BLOCK_END_GENERATION])))
+				block = blockCache[PC] = null;
+
+			if ((block == null) && (++blockHeat[PC] >= BLOCK_HOT_THRESHOLD)) {
+				blockHeat[PC] = 0;
+				block = blockCache[PC] = translateBlock(PC);
+			}
+
+			if (block != null)
+				executeBlock(block);
+			else
+				interpretBlock();
+			PC &= 0xffff;
+		}
 
-		return (clock - clockStart) & 0x7fffffff;
+		return (int) (clock - clockStart);
 	}
 
 	public final void checkInterrupts() {
@@ -7,6 +7,7 @@
  */
 
 import java.io.*;
+import java.util.Arrays;
 
 public class EmAppleII extends Em6502 implements Runnable {
 	/*
@@ -23,6 +24,8 @@ public class EmAppleII extends Em6502 implements Runnable {
 	public static final int MEM_PHYS_ROM_LOW =	0x0d000;
 	public static final int MEM_PHYS_ROM_HIGH =	0x0e000;
 
+	public static final int MEM_MAIN_ZP =		0x00000;
+	public static final int MEM_MAIN_STACK =	0x00100;
 	public static final int MEM_MAIN_RAM1 =		0x00200;
 	public static final int MEM_MAIN_TEXT =		0x00400;
 	public static final int MEM_MAIN_RAM2 =		0x00800;
@@ -48,10 +51,7 @@ public class EmAppleII extends Em6502 implements Runnable {
 	public static final int MEM_ROM_INTERNAL =	0x23000;
 	public static final int MEM_ROM_EXTERNAL =	0x24000;
 
-	public static final int MEM_MAIN_ZP =		0x25000;
-	public static final int MEM_MAIN_STACK =	0x25100;
-
-	public static final int MEM_WASTE =			0x25200;
+	public static final int MEM_WASTE =			0x25000;
 
 	public static final int MEM_END =			0x28000;
 	
@@ -60,10 +60,33 @@ public class EmAppleII extends Em6502 implements Runnable {
 	public Peripheral[] slots;
 	public AppleSpeaker speaker;
 	
-	// Graphics	(dirty buffer every 0x80 bytes)
+	// Graphics	(dirty bitmap, one bit every 0x80 bytes of text/lores and hires pages)
 	public int graphicsMode;
-	public boolean[] graphicsDirty = new boolean[0x10000 >> 7];
+	public static final int GRAPHICS_DIRTY_SIZE = (MEM_PHYS_HIRES + 0x4000) >> 13;
+	private long[] graphicsDirty = new long[GRAPHICS_DIRTY_SIZE];
+	// Text/lores and hires pages, one bit per 0x400 bytes
+	private static final long GRAPHICS_KBYTES = (0x3L << (MEM_PHYS_TEXT >> 10)) |
+		(0xffffL << (MEM_PHYS_HIRES >> 10));
 	
+	// Frame snapshot (dirty video blocks of main and aux memory, published every frame)
+	public static final int CLOCKS_PER_FRAME = 17030;
+	public static final int FRAME_MEMORY_SIZE = MEM_AUX_ZP + (MEM_PHYS_HIRES + 0x4000);
+	private byte[] frameMemory = new byte[FRAME_MEMORY_SIZE];
+	private long[] frameDirty = new long[GRAPHICS_DIRTY_SIZE];
+	private int frameGraphicsMode;
+	private boolean isFrameTaken = true;
+
+	// Graphics mode log of the current frame (ring, the oldest changes are folded into the base)
+	public static final int CLOCKS_PER_LINE = 65;
+	public static final int FRAME_LINES = 192;
+	private static final int MODE_LOG_SIZE = 256;
+	private long[] modeLogClock = new long[MODE_LOG_SIZE];
+	private int[] modeLogMode = new int[MODE_LOG_SIZE];
+	private int modeLogCount;
+	private int modeLogBase;
+	private long frameClock;
+	private int[] frameLineModes = new int[FRAME_LINES];
+
 	public static final int GR_TEXT		= (1 << 0);
 	public static final int GR_MIXMODE	= (1 << 1);
 	public static final int GR_PAGE2	= (1 << 2);
@@ -78,7 +101,7 @@ public class EmAppleII extends Em6502 implements Runnable {
 	public static final int SPEAKER_FLIPS_SIZE = 1 << SPEAKER_FLIPS_BITS;
 	public static final int SPEAKER_FLIPS_MASK = SPEAKER_FLIPS_SIZE - 1;
 	
-	public int speakerFlips[] = new int[SPEAKER_FLIPS_SIZE];
+	public long speakerFlips[] = new long[SPEAKER_FLIPS_SIZE];
 	public int speakerFlipsPointer = 0;
 
 	// Default ROM
@@ -142,8 +165,39 @@ public class EmAppleII extends Em6502 implements Runnable {
 	};
 
 	// Emulator
+	public static final int CPU_ENGINE_INTERPRETER = 0;
+	public static final int CPU_ENGINE_BLOCKS = 1;
+	public static final int CPU_ENGINE_PREDECODED = 2;
+	public static final int CPU_ENGINE_LOCALS = 3;	// Retired, runs the pre-decoded engine
+	public static final int CPU_ENGINE_ACCURATE = 4;
+
 	private boolean isRestart;
 
+	private int cpuEngine = CPU_ENGINE_INTERPRETER;
+
+	// Idle loop detection
+	private static final int IDLE_SLICES = 16;
+	private static final int IDLE_POLLS = 8;
+	private static final int IDLE_NONE = 0;
+	private static final int IDLE_KBD = 1;		// BIT/LDA $C000; BPL *-3
+	private static final int IDLE_KEYIN = 2;	// INC zp; BNE *+4; INC zp+1; BIT $C000; BPL *-9
+
+	// Native ROM routines
+	public static final int TRAP_WAIT = 0xfca8;
+
+	private static final int[] WAIT_CODE = {
+		0x38, 0x48, 0xe9, 0x01, 0xd0, 0xfc, 0x68, 0xe9, 0x01, 0xd0, 0xf6, 0x60
+	};
+
+	private boolean isIdleSkip = true;
+	private boolean isCpuIdle;
+	private int keyboardPolls;
+	private Object keyboardEvent = new Object();
+	private long idleClocksCumulative;
+	private long idleClocksPerSecond;
+	private long intervalClocksCumulative;
+	private long intervalClocksPerSecond;
+
 	private int cpuSpeed;
 	private int clocksPerInterval;
 
@@ -152,13 +206,42 @@ public class EmAppleII extends Em6502 implements Runnable {
 	private long refreshDelayCumulative;
 	private long refreshDelayPerSecond;
 	private long refreshCycle;
+
+	private boolean isWarp;
+
+	// Clock events
+	private ClockScheduler scheduler = new ClockScheduler();
+	private long clocksCumulative;
+	private long clocksSecondStart;
+	private long clocksPerSecond;
 	
 	// Keyboard
 	private int keyboardLatch;
 
-	// Memory offsets
-	private int[] memoryReadOffset = new int[0x101];
-	private int[] memoryWriteOffset = new int[0x101];
+	// I/O handlers ($C000-$C0FF)
+	private IoHandler[] ioReadHandlers = new IoHandler[0x100];
+	private IoHandler[] ioWriteHandlers = new IoHandler[0x100];
+
+	// Memory offsets (immutable tables, one pair per reachable memory map state)
+	private static final int MAP_AUX_READ = (1 << 0);
+	private static final int MAP_AUX_WRITE = (1 << 1);
+	private static final int MAP_80STORE = (1 << 2);
+	private static final int MAP_PAGE2 = (1 << 3);
+	private static final int MAP_HIRES = (1 << 4);
+	private static final int MAP_LC_READ = (1 << 5);
+	private static final int MAP_LC_WRITE = (1 << 6);
+	private static final int MAP_LC_BANK2 = (1 << 7);
+	private static final int MAP_AUX_ZP = (1 << 8);
+	private static final int MAP_ROM_INTERNAL = (1 << 9);
+	private static final int MAP_ROM_C3_EXTERNAL = (1 << 10);
+	private static final int MAP_STATES = (1 << 11);
+
+	private int[] memoryReadOffset;
+	private int[] memoryWriteOffset;
+	private int memoryMapState = -1;
+	private int[][] memoryReadTables = new int[MAP_STATES][];
+	private int[][] memoryWriteTables = new int[MAP_STATES][];
+	private int[][][] memoryMapRemaps = new int[MAP_STATES][][];
 
 	// Language card state
 	private boolean isLcReadEnable;
@@ -193,8 +276,10 @@ public class EmAppleII extends Em6502 implements Runnable {
 		
 		// Allocate compute memory
 		mem = new byte[MEM_END];
+		ioPage = MEM_PHYS_IO >> 8;
 
 		// Initialize CPU
+		initIoHandlers();
 		initMemoryMap();
 		setRandomSeed();
 		setCpuSpeed(1000);
@@ -202,6 +287,7 @@ public class EmAppleII extends Em6502 implements Runnable {
 
 		// Setup default ROM
 		loadDefaultRom();
+		initTraps();
 		
 		// Setup paddles
 		paddle = new Paddle(this);
@@ -210,13 +296,80 @@ public class EmAppleII extends Em6502 implements Runnable {
 		slots = new Peripheral[8];
 		for (int slot = 1; slot < 8; slot++)
 			setPeripheral(new Peripheral(), slot);
+
+		// Publish a video snapshot every frame
+		markGraphicsDirty(0, MEM_PHYS_HIRES + 0x4000);
+		scheduleEvent(clock + CLOCKS_PER_FRAME, new ClockEvent() {
+			public void clockEvent(long clock) {
+				publishFrame(clock);
+				scheduleEvent(clock + CLOCKS_PER_FRAME, this);
+			}
+		});
 	}
 	
+	/**
+	 * Register the native ROM routine handlers (all disabled)
+	 */
+	private void initTraps() {
+		setTrap(TRAP_WAIT, new CpuTrap() {
+			public boolean trap(Em6502 cpu) {
+				return waitTrap();
+			}
+		}, 1);
+
+		for (int i = 0; i < ApplesoftFloat.ENTRIES.length; i++)
+			setTrap(ApplesoftFloat.ENTRIES[i],
+				new ApplesoftFloat(this, ApplesoftFloat.ENTRIES[i]), 0);
+	}
+
+	/**
+	 * Set native Applesoft floating point (FADD, FSUB, FMULT, FDIV)
+	 */
+	public void setFloatAcceleration(boolean value) {
+		for (int i = 0; i < ApplesoftFloat.ENTRIES.length; i++)
+			setTrapEnabled(ApplesoftFloat.ENTRIES[i], value);
+	}
+
+	/**
+	 * Get native Applesoft floating point
+	 */
+	public boolean getFloatAcceleration() {
+		return getTrapEnabled(ApplesoftFloat.FADDT);
+	}
+
+	/**
+	 * Is the given routine mapped at address?
+	 */
+	private boolean isRomRoutine(int address, int[] code) {
+		for (int offset = 0; offset < code.length; offset++)
+			if (memoryRead(address + offset) != code[offset])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Monitor WAIT: delays 2.5 A^2 + 13.5 A + 7 clocks and returns with
+	 * A = 0, Z and C set (A = 0 borrows, so it is left to the CPU)
+	 */
+	private boolean waitTrap() {
+		if ((A == 0) || ((P & FLAG_D) != 0) || !isRomRoutine(TRAP_WAIT, WAIT_CODE))
+			return false;
+
+		long count = A;
+		mem[(0x100 | S) + zeroPageOffset] = 1;
+		A = 0;
+		setFNZ(false, true);
+		setFC(true);
+		clock += (5 * count * count + 27 * count) / 2;
+
+		return true;
+	}
+
 	/**
 	 * Set random seed (so programs start randomly)
 	 */
 	public void setRandomSeed() {
-		mem[0xcd] = (byte) System.currentTimeMillis();
+		mem[0xcd + zeroPageOffset] = (byte) System.currentTimeMillis();
 	}
 	
 	/**
@@ -225,6 +378,7 @@ public class EmAppleII extends Em6502 implements Runnable {
     public void loadDefaultRom() {
 		for(int offset = 0; offset < 0x1d0; offset++)
 			mem[(MEM_ROM_MAIN_LOW + 0x3000 - 0x1d0) + offset] = (byte) defaultRom[offset];
+		invalidateCode();
 	}
 
 	/**
@@ -274,6 +428,7 @@ public class EmAppleII extends Em6502 implements Runnable {
 					mem[MEM_ROM_EXTERNAL + slot + i] = (byte)0xA0;
 			}
 		}
+		invalidateCode();
 
 		return true;
 	}
@@ -283,10 +438,13 @@ public class EmAppleII extends Em6502 implements Runnable {
 	 */
 	public void setPeripheral(Peripheral peripheral, int slot) {
 		slots[slot] = peripheral;
+		if (slot > 0)
+			setIoHandlers(0x80 + (slot << 4), 0x10, peripheral, peripheral);
 		
 		int offset = MEM_ROM_EXTERNAL + (slot << 8);
 		for(int i = 0; i < 0x100; i++)
 			mem[offset + i] = (byte) peripheral.memoryRead(i);
+		invalidateCode();
 	}
 
 	/**
@@ -320,7 +478,10 @@ public class EmAppleII extends Em6502 implements Runnable {
 	 */
 	public void setKeyLatch(int key) {
 		key &= 0x7f;
-		keyboardLatch = (key | 0x80);
+		synchronized (keyboardEvent) {
+			keyboardLatch = (key | 0x80);
+			keyboardEvent.notify();
+		}
 	}
 
 	/**
@@ -360,6 +521,68 @@ public class EmAppleII extends Em6502 implements Runnable {
 		return cpuSpeed;
 	}
 
+	/**
+ 	 * Set CPU engine
+	 */
+	public void setCpuEngine(int value) {
+		if ((value < CPU_ENGINE_INTERPRETER) || (value > CPU_ENGINE_ACCURATE))
+			return;
+		if (value == CPU_ENGINE_LOCALS)
+			value = CPU_ENGINE_PREDECODED;
+
+		cpuEngine = value;
+	}
+
+	/**
+ 	 * Get CPU engine
+	 */
+	public int getCpuEngine() {
+		return cpuEngine;
+	}
+
+	/**
+ 	 * Schedule an event at the given CPU clock
+	 */
+	public void scheduleEvent(long clock, ClockEvent event) {
+		scheduler.schedule(clock, event);
+	}
+
+	/**
+ 	 * Cancel all pending occurrences of an event
+	 */
+	public void cancelEvent(ClockEvent event) {
+		scheduler.cancel(event);
+	}
+
+	/**
+ 	 * Set warp mode (run as fast as possible, without sound)
+	 */
+	public void setWarp(boolean value) {
+		isWarp = value;
+	}
+
+	/**
+ 	 * Get warp mode
+	 */
+	public boolean getWarp() {
+		return isWarp;
+	}
+
+	/**
+ 	 * Set idle loop skipping
+	 */
+	public void setIdleSkip(boolean value) {
+		isIdleSkip = value;
+		isCpuIdle = false;
+	}
+
+	/**
+ 	 * Get idle loop skipping
+	 */
+	public boolean getIdleSkip() {
+		return isIdleSkip;
+	}
+
 	/**
  	 * Get refresh rate
 	 */
@@ -435,6 +658,8 @@ public class EmAppleII extends Em6502 implements Runnable {
 		// Calculate effective CPU speed
 		if (isPaused || isStepMode)
 			cpuSpeedCurrent = 0;
+		else if (isWarp)
+			cpuSpeedCurrent = clocksPerSecond / 1000;
 		else if (refreshDelayPerSecond > 1000)
 			cpuSpeedCurrent = cpuSpeed * 1000 / refreshDelayPerSecond;
 		else
@@ -454,7 +679,19 @@ public class EmAppleII extends Em6502 implements Runnable {
 		statInfo += " " + formatHex(memoryRead(PC + 2), 2);
 		statInfo += " " + formatHex(memoryRead(PC + 3), 2);
 		statInfo += "\n";
-		statInfo += " MHZ=" + formatDec((int) cpuSpeedCurrent, 3) + " [" + refreshDelayPerSecond + " ms/s]\n";
+		statInfo += " MHZ=" + formatDec((int) cpuSpeedCurrent, 3) + " [" + refreshDelayPerSecond + " ms/s]" + (isWarp ? " WARP" : "") + "\n";
+		if ((cpuEngine == CPU_ENGINE_PREDECODED) && getInstructionFusion())
+			statInfo += " FUSED=" + (fusedCount * 100 / (dispatchCount + fusedCount + 1)) + "% [" + dispatchCount + " dispatches]\n";
+		if ((cpuEngine == CPU_ENGINE_PREDECODED) && getLoopAcceleration())
+			statInfo += " LOOPS=" + loopCount + "\n";
+		if (trapCount != 0)
+			statInfo += " TRAPS=" + trapCount + "\n";
+		if (isIdleSkip) {
+			// Share of the clocks actually run (throttled or warp) that were skipped
+			long idleClocks = idleClocksPerSecond;
+			long intervalClocks = intervalClocksPerSecond;
+			statInfo += " IDLE=" + ((intervalClocks > 0) ? (idleClocks * 100 / intervalClocks) : 0) + "%\n";
+		}
 		if (threadError != null)
 			statInfo += threadError + "\n";
 
@@ -471,7 +708,7 @@ public class EmAppleII extends Em6502 implements Runnable {
 	 * and sample according to what is being shown.
 	 */
 	 public int noise() {
-		 return mem[clock & 0x3fff];
+		 return mem[(int) clock & 0x3fff];
 	 }
 
 
@@ -499,23 +736,277 @@ public class EmAppleII extends Em6502 implements Runnable {
 			ioWrite(address, value);
 		else {
 			mem[address + memoryWriteOffset[address >> 8]] = (byte) value;
-			graphicsDirty[address >> 7] = true;
+			if (isGraphicsAddress(address))
+				graphicsDirty[address >> 13] |= (1L << (address >> 7));
+			codeGeneration[address >> 8]++;
+		}
+	}
+
+	/**
+	 * Bulk memory fill, page by page through the memory map
+	 */
+	protected boolean fillMemory(int address, int length, int value) {
+		int end = address + length;
+		if ((address < (MEM_PHYS_IO + 0x100)) && (end > MEM_PHYS_IO))
+			return false;
+
+		while (address < end) {
+			int chunkEnd = Math.min((address | 0xff) + 1, end);
+			int offset = memoryWriteOffset[address >> 8];
+			Arrays.fill(mem, address + offset, chunkEnd + offset, (byte) value);
+			codeGeneration[address >> 8]++;
+			address = chunkEnd;
+		}
+		markGraphicsDirty(end - length, end);
+
+		return true;
+	}
+
+	/**
+	 * Bulk memory copy, page by page through the memory map
+	 */
+	protected boolean copyMemory(int dest, int source, int length) {
+		if (((dest < (MEM_PHYS_IO + 0x100)) && ((dest + length) > MEM_PHYS_IO)) ||
+			((source < (MEM_PHYS_IO + 0x100)) && ((source + length) > MEM_PHYS_IO)))
+			return false;
+
+		int destStart = dest;
+		int end = dest + length;
+		while (dest < end) {
+			int chunk = Math.min((dest | 0xff) + 1 - dest, (source | 0xff) + 1 - source);
+			chunk = Math.min(chunk, end - dest);
+			System.arraycopy(mem, source + memoryReadOffset[source >> 8],
+				mem, dest + memoryWriteOffset[dest >> 8], chunk);
+			codeGeneration[dest >> 8]++;
+			dest += chunk;
+			source += chunk;
+		}
+		markGraphicsDirty(destStart, end);
+
+		return true;
+	}
+
+	/**
+	 * Is address in a text/lores or hires page?
+	 */
+	private static boolean isGraphicsAddress(int address) {
+		return (((GRAPHICS_KBYTES >>> (address >> 10)) & 1) != 0);
+	}
+
+	/**
+	 * Mark the graphics blocks of an address range as dirty
+	 */
+	private void markGraphicsDirty(int start, int end) {
+		for (int address = start & ~0x7f; address < end; address += 0x80)
+			if (isGraphicsAddress(address))
+				graphicsDirty[address >> 13] |= (1L << (address >> 7));
+	}
+
+	/**
+	 * Publish a frame: snapshot the dirty video blocks (CPU thread)
+	 */
+	private void publishFrame(long clock) {
+		synchronized (frameMemory) {
+			copyDirtyBlocks(graphicsDirty, mem, frameMemory, frameDirty);
+			frameGraphicsMode = graphicsMode;
+			replayGraphicsModeLog(frameLineModes);
+			isFrameTaken = false;
+		}
+
+		frameClock = clock;
+	}
+
+	/**
+	 * Copy the blocks of the last frame that changed into a display memory image
+	 *
+	 * @param	memory	Memory image (FRAME_MEMORY_SIZE bytes)
+	 * @param	dirty	Dirty bitmap, the copied blocks are added to it
+	 * @param	lineModes	Graphics mode of each scanline (FRAME_LINES entries)
+	 * @return	The frame's graphics mode, or -1 if no frame was published since
+	 */
+	public int getFrame(byte[] memory, long[] dirty, int[] lineModes) {
+		synchronized (frameMemory) {
+			if (isFrameTaken)
+				return -1;
+
+			copyDirtyBlocks(frameDirty, frameMemory, memory, dirty);
+			System.arraycopy(frameLineModes, 0, lineModes, 0, FRAME_LINES);
+			isFrameTaken = true;
+
+			return frameGraphicsMode;
+		}
+	}
+
+	/**
+	 * Log a graphics mode change
+	 */
+	private void logGraphicsMode() {
+		int index = modeLogCount & (MODE_LOG_SIZE - 1);
+		if (modeLogCount >= MODE_LOG_SIZE)
+			modeLogBase = modeLogMode[index];
+
+		modeLogClock[index] = clock;
+		modeLogMode[index] = graphicsMode;
+		modeLogCount++;
+	}
+
+	/**
+	 * Replay the graphics mode log of the current frame per scanline, and start a new one
+	 * (a change applies from the first scanline starting after it)
+	 */
+	private void replayGraphicsModeLog(int[] lineModes) {
+		if (modeLogCount == 0)
+			Arrays.fill(lineModes, graphicsMode);
+		else {
+			int lineMode = modeLogBase;
+			int entry = Math.max(0, modeLogCount - MODE_LOG_SIZE);
+			for (int line = 0; line < FRAME_LINES; line++) {
+				long lineClock = frameClock + line * CLOCKS_PER_LINE;
+				while ((entry < modeLogCount) &&
+					(modeLogClock[entry & (MODE_LOG_SIZE - 1)] <= lineClock)) {
+					lineMode = modeLogMode[entry & (MODE_LOG_SIZE - 1)];
+					entry++;
+				}
+				lineModes[line] = lineMode;
+			}
+		}
+
+		modeLogBase = graphicsMode;
+		modeLogCount = 0;
+	}
+
+	/**
+	 * Copy dirty video blocks (main and aux), moving their bits from one bitmap to another
+	 */
+	private void copyDirtyBlocks(long[] fromDirty, byte[] fromMemory, byte[] toMemory, long[] toDirty) {
+		for (int block = 0; block < (GRAPHICS_DIRTY_SIZE << 6); block++) {
+			if ((fromDirty[block >> 6] & (1L << block)) != 0) {
+				int address = block << 7;
+				System.arraycopy(fromMemory, address, toMemory, address, 0x80);
+				System.arraycopy(fromMemory, address + (MEM_AUX_ZP - MEM_MAIN_ZP),
+					toMemory, address + (MEM_AUX_ZP - MEM_MAIN_ZP), 0x80);
+			}
 		}
+
+		for (int i = 0; i < GRAPHICS_DIRTY_SIZE; i++) {
+			toDirty[i] |= fromDirty[i];
+			fromDirty[i] = 0;
+		}
+	}
+
+	/**
+	 * Code in the I/O page can't be cached
+	 */
+	protected boolean isCodeCacheable(int page) {
+		return (page != (MEM_PHYS_IO >> 8)) && super.isCodeCacheable(page);
 	}
 
 	/**
-	 * Update memory maps
+	 * Current memory map state
 	 */
-	private void updateMainMemoryMap() {
+	private int getMemoryMapState() {
+		int state = 0;
+
+		if (isAuxRead)
+			state |= MAP_AUX_READ;
+		if (isAuxWrite)
+			state |= MAP_AUX_WRITE;
+		if ((graphicsMode & GR_80STORE) != 0)
+			state |= MAP_80STORE;
+		if ((graphicsMode & GR_PAGE2) != 0)
+			state |= MAP_PAGE2;
+		if ((graphicsMode & GR_HIRES) != 0)
+			state |= MAP_HIRES;
+		if (isLcReadEnable)
+			state |= MAP_LC_READ;
+		if (isLcWriteEnable)
+			state |= MAP_LC_WRITE;
+		if (isLcBank2)
+			state |= MAP_LC_BANK2;
+		if (isAuxZeroPage)
+			state |= MAP_AUX_ZP;
+		if (isRomInternal)
+			state |= MAP_ROM_INTERNAL;
+		if (isRomC3External)
+			state |= MAP_ROM_C3_EXTERNAL;
+
+		return state;
+	}
+
+	/**
+	 * Update memory maps (switches to the tables of the current state,
+	 * building them the first time the state is reached)
+	 */
+	private void updateMemoryMap() {
+		int state = getMemoryMapState();
+		if (state == memoryMapState)
+			return;
+
+		if (memoryReadTables[state] == null) {
+			memoryReadTables[state] = new int[0x101];
+			memoryWriteTables[state] = new int[0x101];
+			buildMemoryMap(state, memoryReadTables[state], memoryWriteTables[state]);
+		}
+
+		// Cached code in a remapped page is stale
+		if (memoryMapState >= 0) {
+			int[][] remaps = memoryMapRemaps[memoryMapState];
+			if (remaps == null)
+				remaps = memoryMapRemaps[memoryMapState] = new int[MAP_STATES][];
+
+			int[] pages = remaps[state];
+			if (pages == null)
+				pages = remaps[state] = getRemappedPages(memoryReadOffset, memoryReadTables[state]);
+
+			for (int index = 0; index < pages.length; index++)
+				codeGeneration[pages[index]]++;
+		}
+
+		memoryReadOffset = memoryReadTables[state];
+		memoryWriteOffset = memoryWriteTables[state];
+		memoryMapState = state;
+		zeroPageOffset = memoryReadOffset[0x00];
+	}
+
+	/**
+	 * Pages whose read offset differs between two maps
+	 */
+	private int[] getRemappedPages(int[] fromOffset, int[] toOffset) {
+		int count = 0;
+		for (int page = 0; page < fromOffset.length; page++)
+			if (fromOffset[page] != toOffset[page])
+				count++;
+
+		int[] pages = new int[count];
+		count = 0;
+		for (int page = 0; page < fromOffset.length; page++)
+			if (fromOffset[page] != toOffset[page])
+				pages[count++] = page;
+
+		return pages;
+	}
+
+	/**
+	 * Build the memory map tables of a state
+	 */
+	private void buildMemoryMap(int state, int[] readOffset, int[] writeOffset) {
+		// Zero page and stack
+		int zpOffset = ((state & MAP_AUX_ZP) != 0) ?
+			(MEM_AUX_ZP - MEM_PHYS_ZP) : (MEM_MAIN_ZP - MEM_PHYS_ZP);
+
+		Arrays.fill(readOffset, 0x00, 0x02, zpOffset);
+		Arrays.fill(writeOffset, 0x00, 0x02, zpOffset);
+
+		// Main memory
 		int ramReadOffset, textReadOffset, hiresReadOffset;
 		int ramWriteOffset, textWriteOffset, hiresWriteOffset;
-		boolean isPage2 = ((graphicsMode & GR_PAGE2) != 0);
-		boolean is80STORE = ((graphicsMode & GR_80STORE) != 0);
-		boolean isHires = ((graphicsMode & GR_HIRES) != 0);
+		boolean isPage2 = ((state & MAP_PAGE2) != 0);
+		boolean is80STORE = ((state & MAP_80STORE) != 0);
+		boolean isHires = ((state & MAP_HIRES) != 0);
 
-		textReadOffset = hiresReadOffset = ramReadOffset = isAuxRead ? 
+		textReadOffset = hiresReadOffset = ramReadOffset = ((state & MAP_AUX_READ) != 0) ?
 			(MEM_AUX_RAM1 - MEM_PHYS_RAM1) : (MEM_MAIN_RAM1 - MEM_PHYS_RAM1);
-		textWriteOffset = hiresWriteOffset = ramWriteOffset = isAuxWrite ?
+		textWriteOffset = hiresWriteOffset = ramWriteOffset = ((state & MAP_AUX_WRITE) != 0) ?
 			(MEM_AUX_RAM1 - MEM_PHYS_RAM1) : (MEM_MAIN_RAM1 - MEM_PHYS_RAM1);
 
 		if (is80STORE) {
@@ -525,52 +1016,41 @@ public class EmAppleII extends Em6502 implements Runnable {
 			if (isHires)
 				hiresWriteOffset = hiresReadOffset = textReadOffset;
 		}
-		
-		memoryReadOffset[0x02] = memoryReadOffset[0x03] = ramReadOffset;
-		memoryWriteOffset[0x02] = memoryWriteOffset[0x03] = ramWriteOffset;
-		memoryReadOffset[0x04] = memoryReadOffset[0x05] = memoryReadOffset[0x06] = memoryReadOffset[0x07] = textReadOffset;
-		memoryWriteOffset[0x04] = memoryWriteOffset[0x05] = memoryWriteOffset[0x06] = memoryWriteOffset[0x07] = textWriteOffset;
-		for (int offset = 0x08; offset < 0x20; offset++) {
-			memoryReadOffset[offset] = ramReadOffset;
-			memoryWriteOffset[offset] = ramWriteOffset;
-		}
-		for (int offset = 0x20; offset < 0x40; offset++) {
-			memoryReadOffset[offset] = hiresReadOffset;
-			memoryWriteOffset[offset] = hiresWriteOffset;
-		}
-		for (int offset = 0x40; offset < 0xc0; offset++) {
-			memoryReadOffset[offset] = ramReadOffset;
-			memoryWriteOffset[offset] = ramWriteOffset;
-		}
-	}
 
-	private void updateIOMemoryMap() {
+		Arrays.fill(readOffset, 0x02, 0x04, ramReadOffset);
+		Arrays.fill(writeOffset, 0x02, 0x04, ramWriteOffset);
+		Arrays.fill(readOffset, 0x04, 0x08, textReadOffset);
+		Arrays.fill(writeOffset, 0x04, 0x08, textWriteOffset);
+		Arrays.fill(readOffset, 0x08, 0x20, ramReadOffset);
+		Arrays.fill(writeOffset, 0x08, 0x20, ramWriteOffset);
+		Arrays.fill(readOffset, 0x20, 0x40, hiresReadOffset);
+		Arrays.fill(writeOffset, 0x20, 0x40, hiresWriteOffset);
+		Arrays.fill(readOffset, 0x40, 0xc0, ramReadOffset);
+		Arrays.fill(writeOffset, 0x40, 0xc0, ramWriteOffset);
+
+		// Slot ROM
 		int romOffset;
 
-		if (isRomInternal)
+		if ((state & MAP_ROM_INTERNAL) != 0)
 			romOffset = (MEM_ROM_INTERNAL - MEM_PHYS_IO);
 		else
 			romOffset = (MEM_ROM_EXTERNAL - MEM_PHYS_IO);
 	
-		for (int offset = 0xc1; offset < 0xd0; offset++)
-			memoryReadOffset[offset] = romOffset;
+		Arrays.fill(readOffset, 0xc1, 0xd0, romOffset);
+		Arrays.fill(writeOffset, 0xc1, 0xd0, (MEM_WASTE - MEM_PHYS_IO));
 
-		if (isRomC3External)
-			memoryReadOffset[0xc3] = (MEM_ROM_EXTERNAL - MEM_PHYS_IO);
+		if ((state & MAP_ROM_C3_EXTERNAL) != 0)
+			readOffset[0xc3] = (MEM_ROM_EXTERNAL - MEM_PHYS_IO);
 		else
-			memoryReadOffset[0xc3] = (MEM_ROM_INTERNAL - MEM_PHYS_IO);
-	}
-
-	private void initIOMemoryMap() {
-		for (int offset = 0xc1; offset < 0xd0; offset++)
-			memoryWriteOffset[offset] = (MEM_WASTE - MEM_PHYS_IO);
-	}
+			readOffset[0xc3] = (MEM_ROM_INTERNAL - MEM_PHYS_IO);
 
-	private void updateLCMemoryMap() {
+		// Language card
 		int lcReadOffset, lcReadOffsetHigh;
 		int lcWriteOffset, lcWriteOffsetHigh;
+		boolean isLcBank2 = ((state & MAP_LC_BANK2) != 0);
+		boolean isAuxZeroPage = ((state & MAP_AUX_ZP) != 0);
 		
-		if (!isLcReadEnable) {
+		if ((state & MAP_LC_READ) == 0) {
 			lcReadOffset = (MEM_ROM_MAIN_LOW - MEM_PHYS_ROM_LOW);
 			lcReadOffsetHigh = (MEM_ROM_MAIN_LOW - MEM_PHYS_ROM_LOW);
 		} else if (isAuxZeroPage) {
@@ -581,7 +1061,7 @@ public class EmAppleII extends Em6502 implements Runnable {
 			lcReadOffsetHigh = (MEM_MAIN_LC_HIGH - MEM_PHYS_ROM_HIGH);
 		}
 
-		if (!isLcWriteEnable) {
+		if ((state & MAP_LC_WRITE) == 0) {
 			lcWriteOffset = (MEM_WASTE - MEM_PHYS_ROM_LOW);
 			lcWriteOffsetHigh = (MEM_WASTE - MEM_PHYS_ROM_HIGH);
 		} else if (isAuxZeroPage) {
@@ -592,22 +1072,15 @@ public class EmAppleII extends Em6502 implements Runnable {
 			lcWriteOffsetHigh = (MEM_MAIN_LC_HIGH - MEM_PHYS_ROM_HIGH);
 		}
 		
-		for (int offset = 0xd0; offset < 0xe0; offset++) {
-			memoryReadOffset[offset] = lcReadOffset;
-			memoryWriteOffset[offset] = lcWriteOffset;
-		}
-		for (int offset = 0xe0; offset < 0x100; offset++) {
-			memoryReadOffset[offset] = lcReadOffsetHigh;
-			memoryWriteOffset[offset] = lcWriteOffsetHigh;
-		}
+		Arrays.fill(readOffset, 0xd0, 0xe0, lcReadOffset);
+		Arrays.fill(writeOffset, 0xd0, 0xe0, lcWriteOffset);
+		Arrays.fill(readOffset, 0xe0, 0x100, lcReadOffsetHigh);
+		Arrays.fill(writeOffset, 0xe0, 0x100, lcWriteOffsetHigh);
 	}
 
 	void initMemoryMap() {
-		initIOMemoryMap();
-
-		updateMainMemoryMap();
-		updateIOMemoryMap();
-		updateLCMemoryMap();
+		memoryReadOffset = new int[0x101];
+		updateMemoryMap();
 	}
 	
 	/**
@@ -618,507 +1091,473 @@ public class EmAppleII extends Em6502 implements Runnable {
 	private int ioRead(int address) {
 		address &= 0xff;
 
-		if (address >= 0x90)
-			return slots[(address & 0x70) >> 4].ioRead(address);
+		return ioReadHandlers[address].ioRead(address);
+	}
+
+	/**
+ 	 * Apple I/O writes
+	 *
+	 * @param	address	Address
+	 * @param	value	Value
+	 */
+	private void ioWrite(int address, int value) {
+		address &= 0xff;
+
+		ioWriteHandlers[address].ioWrite(address, value);
+	}
+
+	/**
+	 * Set I/O read handler ($C000-$C0FF)
+	 */
+	public void setIoReadHandler(int address, IoHandler handler) {
+		ioReadHandlers[address & 0xff] = handler;
+	}
+
+	/**
+	 * Set I/O write handler ($C000-$C0FF)
+	 */
+	public void setIoWriteHandler(int address, IoHandler handler) {
+		ioWriteHandlers[address & 0xff] = handler;
+	}
+
+	/**
+	 * Set I/O handlers for a range of addresses (null keeps the current one)
+	 */
+	private void setIoHandlers(int address, int count, IoHandler readHandler, IoHandler writeHandler) {
+		for (int i = address; i < (address + count); i++) {
+			if (readHandler != null)
+				setIoReadHandler(i, readHandler);
+			if (writeHandler != null)
+				setIoWriteHandler(i, writeHandler);
+		}
+	}
+
+	/**
+	 * Register the built-in I/O handlers (slots register in setPeripheral)
+	 */
+	private void initIoHandlers() {
+		// Cassette, game strobe, annunciators and unused switches
+		IoHandler floatingBus = new IoHandler() {
+			public int ioRead(int address) {
+				return noise();
+			}
+
+			public void ioWrite(int address, int value) {
+			}
+		};
+		setIoHandlers(0x00, 0x100, floatingBus, floatingBus);
+
+		// Keyboard
+		setIoHandlers(0x00, 0x10, new IoHandler() {
+			public int ioRead(int address) {
+				// Keyboard data
+				keyboardPolls++;
+				return keyboardLatch;
+			}
+
+			public void ioWrite(int address, int value) {
+			}
+		}, null);
+		IoHandler keyboardStrobe = new IoHandler() {
+			public int ioRead(int address) {
+				keyboardLatch &= 0x7f;
+				return keyboardLatch;
+			}
+
+			public void ioWrite(int address, int value) {
+				keyboardLatch &= 0x7f;
+			}
+		};
+		setIoHandlers(0x10, 0x01, keyboardStrobe, null);
+		setIoHandlers(0x10, 0x10, null, keyboardStrobe);
+		setIoHandlers(0x11, 0x0f, new IoHandler() {
+			public int ioRead(int address) {
+				return (keyboardLatch & 0x7f) | (getSwitchStatus(address) ? 0x80 : 0x00);
+			}
+
+			public void ioWrite(int address, int value) {
+			}
+		}, null);
+
+		// Memory switches
+		setIoHandlers(0x00, 0x02, null, new GraphicsSwitch(GR_80STORE, 0x01, true));
+		setIoHandlers(0x02, 0x02, null, new IoHandler() {
+			public int ioRead(int address) {
+				return noise();
+			}
+
+			public void ioWrite(int address, int value) {
+				// Read aux mem
+				isAuxRead = ((address & 0x01) != 0);
+				updateMemoryMap();
+			}
+		});
+		setIoHandlers(0x04, 0x02, null, new IoHandler() {
+			public int ioRead(int address) {
+				return noise();
+			}
+
+			public void ioWrite(int address, int value) {
+				// Write aux mem
+				isAuxWrite = ((address & 0x01) != 0);
+				updateMemoryMap();
+			}
+		});
+		setIoHandlers(0x06, 0x02, null, new IoHandler() {
+			public int ioRead(int address) {
+				return noise();
+			}
+
+			public void ioWrite(int address, int value) {
+				// Use internal ROM
+				isRomInternal = ((address & 0x01) != 0);
+				updateMemoryMap();
+			}
+		});
+		setIoHandlers(0x08, 0x02, null, new IoHandler() {
+			public int ioRead(int address) {
+				return noise();
+			}
 
+			public void ioWrite(int address, int value) {
+				// Aux zero page
+				isAuxZeroPage = ((address & 0x01) != 0);
+				updateMemoryMap();
+			}
+		});
+		setIoHandlers(0x0a, 0x02, null, new IoHandler() {
+			public int ioRead(int address) {
+				return noise();
+			}
+
+			public void ioWrite(int address, int value) {
+				// Use external slot 3 ROM
+				isRomC3External = ((address & 0x01) != 0);
+				updateMemoryMap();
+			}
+		});
+
+		// Display switches
+		setIoHandlers(0x0c, 0x02, null, new GraphicsSwitch(GR_80CHAR, 0x0d, false));
+		setIoHandlers(0x0e, 0x02, null, new GraphicsSwitch(GR_ALTCHAR, 0x0f, false));
+		IoHandler textSwitch = new GraphicsSwitch(GR_TEXT, 0x51, false);
+		setIoHandlers(0x50, 0x02, textSwitch, textSwitch);
+		IoHandler mixedSwitch = new GraphicsSwitch(GR_MIXMODE, 0x53, false);
+		setIoHandlers(0x52, 0x02, mixedSwitch, mixedSwitch);
+		IoHandler page2Switch = new GraphicsSwitch(GR_PAGE2, 0x55, true);
+		setIoHandlers(0x54, 0x02, page2Switch, page2Switch);
+		IoHandler hiresSwitch = new GraphicsSwitch(GR_HIRES, 0x57, true);
+		setIoHandlers(0x56, 0x02, hiresSwitch, hiresSwitch);
+		IoHandler dhiresSwitch = new GraphicsSwitch(GR_DHIRES, 0x5e, false);
+		setIoHandlers(0x5e, 0x02, dhiresSwitch, dhiresSwitch);
+
+		// Speaker
+		IoHandler speaker = new IoHandler() {
+			public int ioRead(int address) {
+				ioWrite(address, 0);
+				return noise();
+			}
+
+			public void ioWrite(int address, int value) {
+				speakerFlips[speakerFlipsPointer] = clock;
+				speakerFlipsPointer = (speakerFlipsPointer + 1) & SPEAKER_FLIPS_MASK;
+			}
+		};
+		setIoHandlers(0x30, 0x10, speaker, speaker);
+
+		// Paddles and buttons
+		setIoHandlers(0x60, 0x10, new IoHandler() {
+			public int ioRead(int address) {
+				// (Button 3 is also cassette input)
+				int index = address & 0x07;
+				if (index < 4)
+					return paddle.getButtonRegister((index + 3) & 0x03);
+
+				return paddle.getPaddleRegister(index & 0x03);
+			}
+
+			public void ioWrite(int address, int value) {
+			}
+		}, null);
+		IoHandler paddleTrigger = new IoHandler() {
+			public int ioRead(int address) {
+				paddle.triggerRegister();
+				return noise();
+			}
+
+			public void ioWrite(int address, int value) {
+				paddle.triggerRegister();
+			}
+		};
+		setIoHandlers(0x70, 0x10, paddleTrigger, paddleTrigger);
+
+		// Language card
+		IoHandler languageCard = new IoHandler() {
+			public int ioRead(int address) {
+				ioWrite(address, 0);
+				return noise();
+			}
+
+			public void ioWrite(int address, int value) {
+				isLcBank2 = ((address & 0x08) == 0);
+				isLcReadEnable = (((address + 1) & 0x02) == 0);
+				isLcWriteEnable = ((address & 0x01) != 0);
+				updateMemoryMap();
+			}
+		};
+		setIoHandlers(0x80, 0x10, languageCard, languageCard);
+	}
+
+	/**
+	 * Soft switch status ($C011-$C01F)
+	 */
+	private boolean getSwitchStatus(int address) {
 		switch (address) {
-		case 0x00: case 0x01: case 0x02: case 0x03:
-		case 0x04: case 0x05: case 0x06: case 0x07:
-		case 0x08: case 0x09: case 0x0a: case 0x0b:
-		case 0x0c: case 0x0d: case 0x0e: case 0x0f:
-			// Keyboard data
-			return keyboardLatch;
-
-		case 0x10:
-			// Keyboard strobe
-			keyboardLatch &= 0x7f;
-			return keyboardLatch;
 		case 0x11:
 			// Reading from LC Bank 2?
-			return (keyboardLatch & 0x7f) | (isLcBank2 ? 0x80 : 0x00);
+			return isLcBank2;
 		case 0x12:
 			// Reading from LC?
-			return (keyboardLatch & 0x7f) | (isLcReadEnable ? 0x80 : 0x00);
+			return isLcReadEnable;
 		case 0x13:
 			// Reading aux memory?
-			return (keyboardLatch & 0x7f) | (isAuxRead ? 0x80 : 0x00);
+			return isAuxRead;
 		case 0x14:
 			// Writing aux memory?
-			return (keyboardLatch & 0x7f) | (isAuxWrite ? 0x80 : 0x00);
+			return isAuxWrite;
 		case 0x15:
 			// Using internal slot ROM?
-			return (keyboardLatch & 0x7f) | (isRomInternal ? 0x80 : 0x00);
+			return isRomInternal;
 		case 0x16:
 			// Using slot zero page+stack+LC?
-			return (keyboardLatch & 0x7f) | (isAuxZeroPage ? 0x80 : 0x00);
+			return isAuxZeroPage;
 		case 0x17:
 			// Using external slot 3 ROM?
-			return (keyboardLatch & 0x7f) | (isRomC3External ? 0x80 : 0x00);
+			return isRomC3External;
 		case 0x18:
 			// 80STORE?
-			return (keyboardLatch & 0x7f) | (((graphicsMode & GR_80STORE) != 0) ? 0x80 : 0x00);
+			return ((graphicsMode & GR_80STORE) != 0);
 		case 0x19:
 			// VBL Signal low?
 			isVideoVBL = !isVideoVBL;
-			return (keyboardLatch & 0x7f) | (isVideoVBL ? 0x80 : 0x00);
+			return isVideoVBL;
 		case 0x1a:
 			// Using text mode?
-			return (keyboardLatch & 0x7f) | (((graphicsMode & GR_TEXT) != 0) ? 0x80 : 0x00);
+			return ((graphicsMode & GR_TEXT) != 0);
 		case 0x1b:
 			// Using mixed mode?
-			return (keyboardLatch & 0x7f) | (((graphicsMode & GR_MIXMODE) != 0) ? 0x80 : 0x00);
+			return ((graphicsMode & GR_MIXMODE) != 0);
 		case 0x1c:
 			// Using page 2?
-			return (keyboardLatch & 0x7f) | (((graphicsMode & GR_PAGE2) != 0) ? 0x80 : 0x00);
+			return ((graphicsMode & GR_PAGE2) != 0);
 		case 0x1d:
 			// Using hires?
-			return (keyboardLatch & 0x7f) | (((graphicsMode & GR_HIRES) != 0) ? 0x80 : 0x00);
+			return ((graphicsMode & GR_HIRES) != 0);
 		case 0x1e:
 			// Using alt charset?
-			return (keyboardLatch & 0x7f) | (((graphicsMode & GR_ALTCHAR) != 0) ? 0x80 : 0x00);
+			return ((graphicsMode & GR_ALTCHAR) != 0);
 		case 0x1f:
 			// Using 80-column display mode?
-			return (keyboardLatch & 0x7f) | (((graphicsMode & GR_80CHAR) != 0) ? 0x80 : 0x00);
-
-		case 0x20: case 0x21: case 0x22: case 0x23:
-		case 0x24: case 0x25: case 0x26: case 0x27:
-		case 0x28: case 0x29: case 0x2a: case 0x2b:
-		case 0x2c: case 0x2d: case 0x2e: case 0x2f:
-			// Cassette output
-			break;
-
-		case 0x30: case 0x31: case 0x32: case 0x33:
-		case 0x34: case 0x35: case 0x36: case 0x37:
-		case 0x38: case 0x39: case 0x3a: case 0x3b:
-		case 0x3c: case 0x3d: case 0x3e: case 0x3f:
-			// Speaker
-			speakerFlips[speakerFlipsPointer] = clock;
-			speakerFlipsPointer = (speakerFlipsPointer + 1) & SPEAKER_FLIPS_MASK;
-			break;
-
-		case 0x40: case 0x41: case 0x42: case 0x43:
-		case 0x44: case 0x45: case 0x46: case 0x47:
-		case 0x48: case 0x49: case 0x4a: case 0x4b:
-		case 0x4c: case 0x4d: case 0x4e: case 0x4f:
-			// Game strobe
-			break;
-
-		case 0x50:
-			graphicsMode &= ~GR_TEXT;
-			break;
-		case 0x51:
-			graphicsMode |= GR_TEXT;
-			break;
-		case 0x52:
-			graphicsMode &= ~GR_MIXMODE;
-			break;
-		case 0x53:
-			graphicsMode |= GR_MIXMODE;
-			break;
-		case 0x54:
-			graphicsMode &= ~GR_PAGE2;
-			updateMainMemoryMap();
-			break;
-		case 0x55:
-			graphicsMode |= GR_PAGE2;
-			updateMainMemoryMap();
-			break;
-		case 0x56:
-			graphicsMode &= ~GR_HIRES;
-			updateMainMemoryMap();
-			break;
-		case 0x57:
-			graphicsMode |= GR_HIRES;
-			updateMainMemoryMap();
-			break;
-		case 0x58: case 0x59: case 0x5a: case 0x5b:
-		case 0x5c: case 0x5d:
-			// Annunciators
-			break;
-		case 0x5e:
-			graphicsMode |= GR_DHIRES;
-			break;
-		case 0x5f:
-			graphicsMode &= ~GR_DHIRES;
-			break;
-
-		case 0x60:
-		case 0x68:
-			// (Also cassette input)
-			return paddle.getButtonRegister(3);
-		case 0x61: 
-		case 0x69:
-			return paddle.getButtonRegister(0);
-		case 0x62:
-		case 0x6a:
-			return paddle.getButtonRegister(1);
-		case 0x63:
-		case 0x6b:
-			return paddle.getButtonRegister(2);		
-		case 0x64:
-		case 0x6c:
-			return paddle.getPaddleRegister(0);
-		case 0x65:
-		case 0x6d:
-			return paddle.getPaddleRegister(1);
-		case 0x66:
-		case 0x6e:
-			return paddle.getPaddleRegister(2);
-		case 0x67:
-		case 0x6f:
-			return paddle.getPaddleRegister(3);
-
-		case 0x70: case 0x71: case 0x72: case 0x73:
-		case 0x74: case 0x75: case 0x76: case 0x77:
-		case 0x78: case 0x79: case 0x7a: case 0x7b:
-		case 0x7c: case 0x7d: case 0x7e: case 0x7f:
-			paddle.triggerRegister();
-			break;
-
-		case 0x80:
-		case 0x84:
-			isLcBank2 = true;
-			isLcReadEnable = true;
-			isLcWriteEnable = false;
-			updateLCMemoryMap();
-			break;
-		case 0x81:
-		case 0x85:
-			isLcBank2 = true;
-			isLcReadEnable = false;
-			isLcWriteEnable = true;
-			updateLCMemoryMap();
-			break;
-		case 0x82:
-		case 0x86:
-			isLcBank2 = true;
-			isLcReadEnable = false;
-			isLcWriteEnable = false;
-			updateLCMemoryMap();
-			break;
-		case 0x83:
-		case 0x87:
-			isLcBank2 = true;
-			isLcReadEnable = true;
-			isLcWriteEnable = true;
-			updateLCMemoryMap();
-			break;
-		case 0x88:
-		case 0x8c:
-			isLcBank2 = false;
-			isLcReadEnable = true;
-			isLcWriteEnable = false;
-			updateLCMemoryMap();
-			break;
-		case 0x89:
-		case 0x8d:
-			isLcBank2 = false;
-			isLcReadEnable = false;
-			isLcWriteEnable = true;
-			updateLCMemoryMap();
-			break;
-		case 0x8a:
-		case 0x8e:
-			isLcBank2 = false;
-			isLcReadEnable = false;
-			isLcWriteEnable = false;
-			updateLCMemoryMap();
-			break;
-		case 0x8b:
-		case 0x8f:
-			isLcBank2 = false;
-			isLcReadEnable = true;
-			isLcWriteEnable = true;
-			updateLCMemoryMap();
-			break;
-		case 0x90: case 0x91: case 0x92: case 0x93:
-		case 0x94: case 0x95: case 0x96: case 0x97:
-		case 0x98: case 0x99: case 0x9a: case 0x9b:
-		case 0x9c: case 0x9d: case 0x9e: case 0x9f:
-			return slots[1].ioRead(address);
-		
-		case 0xa0: case 0xa1: case 0xa2: case 0xa3:
-		case 0xa4: case 0xa5: case 0xa6: case 0xa7:
-		case 0xa8: case 0xa9: case 0xaa: case 0xab:
-		case 0xac: case 0xad: case 0xae: case 0xaf:
-			return slots[2].ioRead(address);
-		
-		case 0xb0: case 0xb1: case 0xb2: case 0xb3:
-		case 0xb4: case 0xb5: case 0xb6: case 0xb7:
-		case 0xb8: case 0xb9: case 0xba: case 0xbb:
-		case 0xbc: case 0xbd: case 0xbe: case 0xbf:
-			return slots[3].ioRead(address);
-
-		case 0xc0: case 0xc1: case 0xc2: case 0xc3:
-		case 0xc4: case 0xc5: case 0xc6: case 0xc7:
-		case 0xc8: case 0xc9: case 0xca: case 0xcb:
-		case 0xcc: case 0xcd: case 0xce: case 0xcf:
-			return slots[4].ioRead(address);
-
-		case 0xd0: case 0xd1: case 0xd2: case 0xd3:
-		case 0xd4: case 0xd5: case 0xd6: case 0xd7:
-		case 0xd8: case 0xd9: case 0xda: case 0xdb:
-		case 0xdc: case 0xdd: case 0xde: case 0xdf:
-			return slots[5].ioRead(address);
-		
-		case 0xe0: case 0xe1: case 0xe2: case 0xe3:
-		case 0xe4: case 0xe5: case 0xe6: case 0xe7:
-		case 0xe8: case 0xe9: case 0xea: case 0xeb:
-		case 0xec: case 0xed: case 0xee: case 0xef:
-			return slots[6].ioRead(address);
-		
-		case 0xf0: case 0xf1: case 0xf2: case 0xf3:
-		case 0xf4: case 0xf5: case 0xf6: case 0xf7:
-		case 0xf8: case 0xf9: case 0xfa: case 0xfb:
-		case 0xfc: case 0xfd: case 0xfe: case 0xff:
-			return slots[7].ioRead(address);
+			return ((graphicsMode & GR_80CHAR) != 0);
 		}
 
-		return noise();
+		return false;
 	}
 
 	/**
- 	 * Apple I/O writes
+	 * Switch of a graphics mode bit (the on address sets it, its pair clears it)
+	 */
+	private class GraphicsSwitch implements IoHandler {
+		private int mode;
+		private int onAddress;
+		private boolean isMapped;
+
+		public GraphicsSwitch(int mode, int onAddress, boolean isMapped) {
+			this.mode = mode;
+			this.onAddress = onAddress;
+			this.isMapped = isMapped;
+		}
+
+		public int ioRead(int address) {
+			ioWrite(address, 0);
+			return noise();
+		}
+
+		public void ioWrite(int address, int value) {
+			int lastGraphicsMode = graphicsMode;
+
+			if (address == onAddress)
+				graphicsMode |= mode;
+			else
+				graphicsMode &= ~mode;
+
+			if (graphicsMode != lastGraphicsMode)
+				logGraphicsMode();
+			if (isMapped)
+				updateMemoryMap();
+		}
+	}
+
+	/**
+	 * Execute at least the given number of clocks with the CPU engine
+	 */
+	private int executeClocks(int clocks) {
+		if (cpuEngine == CPU_ENGINE_BLOCKS)
+			return executeBlocks(clocks);
+
+		int clocksNeeded = clocks;
+		if (cpuEngine == CPU_ENGINE_PREDECODED) {
+			while (clocksNeeded > 0)
+				clocksNeeded -= executeDecodedInstructions(1 + (clocksNeeded >> 3));
+		} else if (cpuEngine == CPU_ENGINE_ACCURATE) {
+			while (clocksNeeded > 0)
+				clocksNeeded -= executeAccurateInstructions(1 + (clocksNeeded >> 3));
+		} else {
+			while (clocksNeeded > 0)
+				clocksNeeded -= executeInstructions(1 + (clocksNeeded >> 3));
+		}
+
+		return clocks - clocksNeeded;
+	}
+
+	/**
+	 * Recognize a keyboard polling loop at address
+	 */
+	private int getIdleLoop(int address) {
+		if ((((address ^ MEM_PHYS_IO) & 0xff00) == 0) ||
+			((((address + 10) ^ MEM_PHYS_IO) & 0xff00) == 0))
+			return IDLE_NONE;
+
+		int opcode = memoryRead(address);
+		if (((opcode == 0x2c) || (opcode == 0xad)) &&
+			(memoryRead(address + 1) == 0x00) &&
+			(memoryRead(address + 2) == 0xc0) &&
+			(memoryRead(address + 3) == 0x10) &&
+			(memoryRead(address + 4) == 0xfb))
+			return IDLE_KBD;
+
+		if ((opcode == 0xe6) &&
+			(memoryRead(address + 2) == 0xd0) &&
+			(memoryRead(address + 3) == 0x02) &&
+			(memoryRead(address + 4) == 0xe6) &&
+			(memoryRead(address + 5) == ((memoryRead(address + 1) + 1) & 0xff)) &&
+			(memoryRead(address + 6) == 0x2c) &&
+			(memoryRead(address + 7) == 0x00) &&
+			(memoryRead(address + 8) == 0xc0) &&
+			(memoryRead(address + 9) == 0x10) &&
+			(memoryRead(address + 10) == 0xf5))
+			return IDLE_KEYIN;
+
+		return IDLE_NONE;
+	}
+
+	/**
+	 * Fast-forward a keyboard polling loop
 	 *
-	 * @param	address	Address
-	 * @param	value	Value
+	 * Steps to the head of the loop and runs one real iteration, then
+	 * skips whole iterations (keeping the KEYIN random seed counting)
+	 * while no key is pressed. Returns the clocks consumed.
 	 */
-	private void ioWrite(int address, int value) {
-		address &= 0xff;
+	private int skipIdleLoop(int clocks) {
+		long clockStart = clock;
+		int loop = IDLE_NONE;
+		int loopAddress;
+		int loopClocks;
+		int i;
+
+		for (i = 0; (i < 6) && ((loop = getIdleLoop(PC)) == IDLE_NONE); i++)
+			executeInstructions(1);
+		loopAddress = PC;
+
+		long loopClockStart = clock;
+		for (i = 0; (i < 6) && (loop != IDLE_NONE); i++) {
+			executeInstructions(1);
+			if (PC == loopAddress)
+				break;
+		}
+		loopClocks = (int) (clock - loopClockStart);
 
-		if (address >= 0x90) {
-			slots[(address & 0x70) >> 4].ioWrite(address, value);
-			return;
+		if ((loop == IDLE_NONE) || (PC != loopAddress) || (keyboardLatch >= 0x80)) {
+			isCpuIdle = false;
+			return (int) (clock - clockStart);
 		}
 
-		switch (address) {
-		case 0x00:
-			// 80STORE off
-			graphicsMode &= ~GR_80STORE;
-			updateMainMemoryMap();
-			return;
-		case 0x01:
-			// 80STORE on
-			graphicsMode |= GR_80STORE;
-			updateMainMemoryMap();
-			return;
-		case 0x02:
-			// Read aux mem off
-			isAuxRead = false;
-			updateMainMemoryMap();
-			return;
-		case 0x03:
-			// Read aux mem on
-			isAuxRead = true;
-			updateMainMemoryMap();
-			return;
-		case 0x04:
-			// Write aux mem off
-			isAuxWrite = false;
-			updateMainMemoryMap();
-			return;
-		case 0x05:
-			// Write aux mem on
-			isAuxWrite = true;
-			updateMainMemoryMap();
-			return;
-		case 0x06:
-			// Do not use internal ROM
-			isRomInternal = false;
-			updateIOMemoryMap();
-			return;
-		case 0x07:
-			// Use internal ROM
-			isRomInternal = true;
-			updateIOMemoryMap();
-			return;
-		case 0x08:
-			if (isAuxZeroPage) {
-				// Physically get main zero page
-				System.arraycopy(mem, MEM_PHYS_ZP, mem, MEM_AUX_ZP, 0x200);
-				System.arraycopy(mem, MEM_MAIN_ZP, mem, MEM_PHYS_ZP, 0x200);
+		// Stepping to the loop may already have used up a small slice
+		int clocksLeft = clocks - (int) (clock - clockStart);
+		int clocksSkipped = 0;
+		if ((loop == IDLE_KBD) && (clocksLeft >= loopClocks))
+			clocksSkipped = (clocksLeft / loopClocks) * loopClocks;
+		else if (i == 3) {
+			// INC (taken BNE) costs loopClocks, INC; INC costs 4 more
+			int zp = memoryRead(loopAddress + 1);
+			int seed = (mem[zp + zeroPageOffset] & 0xff) |
+				((mem[((zp + 1) & 0xff) + zeroPageOffset] & 0xff) << 8);
+			for (;;) {
+				int iterationClocks = (((seed + 1) & 0xff) == 0) ? loopClocks + 4 : loopClocks;
+				if ((clocksSkipped + iterationClocks) > clocksLeft)
+					break;
+				clocksSkipped += iterationClocks;
+				seed++;
 			}
-			// Aux zero page off
-			isAuxZeroPage = false;
-			updateLCMemoryMap();
-			return;
-		case 0x09:
-			if (!isAuxZeroPage) {
-				// Physically get aux zero page
-				System.arraycopy(mem, MEM_PHYS_ZP, mem, MEM_MAIN_ZP, 0x200);
-				System.arraycopy(mem, MEM_AUX_ZP, mem, MEM_PHYS_ZP, 0x200);
-			}
-			// Aux zero page on
-			isAuxZeroPage = true;
-			updateLCMemoryMap();
-			return;
-		case 0x0a:
-			// Do not use external slot 3 ROM
-			isRomC3External = false;
-			updateIOMemoryMap();
-			return;
-		case 0x0b:
-			// Use external slot 3 ROM
-			isRomC3External = true;
-			updateIOMemoryMap();
-			return;
-		case 0x0c:
-			// 80c off
-			graphicsMode &= ~GR_80CHAR;
-			return;
-		case 0x0d:
-			// 80c on
-			graphicsMode |= GR_80CHAR;
-			return;
-		case 0x0e:
-			// Alt charset off
-			graphicsMode &= ~GR_ALTCHAR;
-			return;
-		case 0x0f:
-			// Alt charset on
-			graphicsMode |= GR_ALTCHAR;
-			return;
-
-		case 0x10: case 0x11: case 0x12: case 0x13:
-		case 0x14: case 0x15: case 0x16: case 0x17:
-		case 0x18: case 0x19: case 0x1a: case 0x1b:
-		case 0x1c: case 0x1d: case 0x1e: case 0x1f:
-			// Keyboard strobe
-			keyboardLatch &= 0x7f;
-			return;
+			mem[zp + zeroPageOffset] = (byte) seed;
+			mem[((zp + 1) & 0xff) + zeroPageOffset] = (byte) (seed >> 8);
+		}
 
-		case 0x20: case 0x21: case 0x22: case 0x23:
-		case 0x24: case 0x25: case 0x26: case 0x27:
-		case 0x28: case 0x29: case 0x2a: case 0x2b:
-		case 0x2c: case 0x2d: case 0x2e: case 0x2f:
-			// Cassette output
-			return;
+		clock += clocksSkipped;
+		idleClocksCumulative += clocksSkipped;
+		isCpuIdle = true;
 
-		case 0x30: case 0x31: case 0x32: case 0x33:
-		case 0x34: case 0x35: case 0x36: case 0x37:
-		case 0x38: case 0x39: case 0x3a: case 0x3b:
-		case 0x3c: case 0x3d: case 0x3e: case 0x3f:
-			// Speaker
-			speakerFlips[speakerFlipsPointer] = clock;
-			speakerFlipsPointer = (speakerFlipsPointer + 1) & SPEAKER_FLIPS_MASK;
-			return;
+		return (int) (clock - clockStart);
+	}
 
-		case 0x40: case 0x41: case 0x42: case 0x43:
-		case 0x44: case 0x45: case 0x46: case 0x47:
-		case 0x48: case 0x49: case 0x4a: case 0x4b:
-		case 0x4c: case 0x4d: case 0x4e: case 0x4f:
-			// Game strobe
-			return;
+	/**
+	 * Execute at least the given number of clocks, fast-forwarding
+	 * the CPU while it polls an idle keyboard
+	 */
+	private void executeIdleClocks(int clocks) {
+		int clocksPerSlice = clocksPerInterval / IDLE_SLICES;
+
+		while (clocks > 0) {
+			if (isCpuIdle && (keyboardLatch < 0x80))
+				clocks -= skipIdleLoop(clocks);
+			else {
+				keyboardPolls = 0;
+				clocks -= executeClocks((clocks < clocksPerSlice) ? clocks : clocksPerSlice);
+				isCpuIdle = (keyboardPolls >= IDLE_POLLS) && (keyboardLatch < 0x80);
+			}
+		}
+	}
 
-		case 0x50:
-			graphicsMode &= ~GR_TEXT;
-			return;
-		case 0x51:
-			graphicsMode |= GR_TEXT;
-			return;
-		case 0x52:
-			graphicsMode &= ~GR_MIXMODE;
-			return;
-		case 0x53:
-			graphicsMode |= GR_MIXMODE;
-			return;
-		case 0x54:
-			graphicsMode &= ~GR_PAGE2;
-			updateMainMemoryMap();
-			return;
-		case 0x55:
-			graphicsMode |= GR_PAGE2;
-			updateMainMemoryMap();
-			return;
-		case 0x56:
-			graphicsMode &= ~GR_HIRES;
-			updateMainMemoryMap();
-			return;
-		case 0x57:
-			graphicsMode |= GR_HIRES;
-			updateMainMemoryMap();
-			return;
-		case 0x58: case 0x59: case 0x5a: case 0x5b:
-		case 0x5c: case 0x5d:
-			// Annunciators
-			return;
-		case 0x5e:
-			graphicsMode |= GR_DHIRES;
-			break;
-		case 0x5f:
-			graphicsMode &= ~GR_DHIRES;
-			break;
-
-		case 0x60: case 0x61: case 0x62: case 0x63:
-		case 0x64: case 0x65: case 0x66: case 0x67:
-		case 0x68: case 0x69: case 0x6a: case 0x6b:
-		case 0x6c: case 0x6d: case 0x6e: case 0x6f:
-			// Cassette input/paddle data
-			return;
+	/**
+	 * Execute an interval, stopping at each scheduled event to run it
+	 * and check interrupts
+	 */
+	private void executeInterval(int clocks) {
+		long clockEnd = clock + clocks;
+		while (clock < clockEnd) {
+			long clockNext = scheduler.getNextClock();
+			if (clockNext > clockEnd)
+				clockNext = clockEnd;
+
+			if (clockNext > clock) {
+				if (isIdleSkip)
+					executeIdleClocks((int) (clockNext - clock));
+				else
+					executeClocks((int) (clockNext - clock));
+			}
 
-		case 0x70: case 0x71: case 0x72: case 0x73:
-		case 0x74: case 0x75: case 0x76: case 0x77:
-		case 0x78: case 0x79: case 0x7a: case 0x7b:
-		case 0x7c: case 0x7d: case 0x7e: case 0x7f:
-			paddle.triggerRegister();
-			return;
+			scheduler.dispatch(clock);
+			checkInterrupts();
+		}
+	}
 
-		case 0x80:
-		case 0x84:
-			isLcBank2 = true;
-			isLcReadEnable = true;
-			isLcWriteEnable = false;
-			updateLCMemoryMap();
-			break;
-		case 0x81:
-		case 0x85:
-			isLcBank2 = true;
-			isLcReadEnable = false;
-			isLcWriteEnable = true;
-			updateLCMemoryMap();
-			break;
-		case 0x82:
-		case 0x86:
-			isLcBank2 = true;
-			isLcReadEnable = false;
-			isLcWriteEnable = false;
-			updateLCMemoryMap();
-			break;
-		case 0x83:
-		case 0x87:
-			isLcBank2 = true;
-			isLcReadEnable = true;
-			isLcWriteEnable = true;
-			updateLCMemoryMap();
-			break;
-		case 0x88:
-		case 0x8c:
-			isLcBank2 = false;
-			isLcReadEnable = true;
-			isLcWriteEnable = false;
-			updateLCMemoryMap();
-			break;
-		case 0x89:
-		case 0x8d:
-			isLcBank2 = false;
-			isLcReadEnable = false;
-			isLcWriteEnable = true;
-			updateLCMemoryMap();
-			break;
-		case 0x8a:
-		case 0x8e:
-			isLcBank2 = false;
-			isLcReadEnable = false;
-			isLcWriteEnable = false;
-			updateLCMemoryMap();
-			break;
-		case 0x8b:
-		case 0x8f:
-			isLcBank2 = false;
-			isLcReadEnable = true;
-			isLcWriteEnable = true;
-			updateLCMemoryMap();
-			break;
+	/**
+	 * Sleep until timeout or a key press (when idle)
+	 */
+	private void waitForKey(long timeout) throws InterruptedException {
+		synchronized (keyboardEvent) {
+			if (keyboardLatch < 0x80)
+				keyboardEvent.wait(timeout);
 		}
 	}
 
@@ -1135,6 +1574,7 @@ public class EmAppleII extends Em6502 implements Runnable {
 			while (!isPaused) {
 				long refreshStart = System.currentTimeMillis();
 				long refreshDelay;
+				long clockStart = clock;
 				
 				checkInterrupts();
 
@@ -1143,12 +1583,10 @@ public class EmAppleII extends Em6502 implements Runnable {
 					if (isNextStep) {
 						isNextStep = false;
 						executeInstructions(stepCount);
+						publishFrame(clock);
 					}
-				} else {
-					int clocksNeeded = clocksPerInterval;
-					while (clocksNeeded > 0)
-						clocksNeeded -= executeInstructions(1 + (clocksNeeded >> 3));
-				}
+				} else
+					executeInterval(clocksPerInterval);
 //				}
 //				catch (RuntimeException e)
 //				{
@@ -1158,17 +1596,37 @@ public class EmAppleII extends Em6502 implements Runnable {
 				// TODO: need something like the following for fast disk access
 				//if (slots[6] instanceof DiskII && !((DiskII)slots[6]).isMotorOn())
 
-				speaker.refreshSpeaker(); // NOTE: this blocks, syncing emulation and sound
+				if (isWarp)
+					speaker.skipSpeaker(); // sound can't keep up, so it is dropped
+				else
+					speaker.refreshSpeaker(); // NOTE: this blocks, syncing emulation and sound
 				refreshDelay = System.currentTimeMillis() - refreshStart;
 
+				// Measure effective CPU speed
+				clocksCumulative += clock - clockStart;
+				intervalClocksCumulative += clock - clockStart;
+				if ((refreshStart - clocksSecondStart) >= 1000) {
+					clocksPerSecond = clocksCumulative * 1000 / (refreshStart - clocksSecondStart);
+					clocksCumulative = 0;
+					clocksSecondStart = refreshStart;
+				}
+
 				refreshDelayCumulative += refreshDelay;
 				refreshCycle++;
 				if (refreshCycle >= refreshRate) {
 					refreshDelayPerSecond = refreshDelayCumulative;
+					idleClocksPerSecond = idleClocksCumulative;
+					intervalClocksPerSecond = intervalClocksCumulative;
 					refreshDelayCumulative = refreshCycle = 0;
+					idleClocksCumulative = intervalClocksCumulative = 0;
 				}
 
-				if (refreshDelay < refreshInterval)
+				if (isCpuIdle) {
+					if (refreshDelay < refreshInterval)
+						waitForKey(refreshInterval - refreshDelay);
+				} else if (isWarp)
+					Thread.yield(); // let the display and input threads run
+				else if (refreshDelay < refreshInterval)
 					Thread.sleep(refreshInterval - refreshDelay);
 			}
 		} catch (InterruptedException e) {	
@@ -1199,6 +1657,8 @@ public class EmAppleII extends Em6502 implements Runnable {
 			// Clear RAM
 			for (int i = 0; i < MEM_ROM_MAIN_LOW; i++)
 				mem[i] = 0;
+			invalidateCode();
+			markGraphicsDirty(0, MEM_PHYS_HIRES + 0x4000);
 
 			setRandomSeed();
 		}
@@ -0,0 +1,23 @@
+/**
+ * AppleIIGo
+ * I/O handler interface ($C000-$C0FF)
+ * Released under the GPL
+ */
+
+public interface IoHandler {
+	/**
+	 * Called on a read of a registered I/O address
+	 *
+	 * @param	address	Address ($00-$FF)
+	 * @return	The value read
+	 */
+	public int ioRead(int address);
+
+	/**
+	 * Called on a write of a registered I/O address
+	 *
+	 * @param	address	Address ($00-$FF)
+	 * @param	value	Value
+	 */
+	public void ioWrite(int address, int value);
+}
@@ -24,7 +24,7 @@ public class Paddle {
 	// Paddle variables
 	// private int paddleMode; // TODO: Was this for analog/digital mode? (Nick)
 
-	private int[] paddleClockEvent = new int[4];
+	private long[] paddleClockEvent = new long[4];
 	private int[] paddleClockInc = new int[4];
 
 	/**
@@ -82,10 +82,10 @@ public class Paddle {
 	 * @param	value	Value
 	 */
 	public void triggerRegister() {
-		paddleClockEvent[0] = apple.clock + paddleClockInc[0];
-		paddleClockEvent[1] = apple.clock + paddleClockInc[1];
-		paddleClockEvent[2] = apple.clock + paddleClockInc[2];
-		paddleClockEvent[3] = apple.clock + paddleClockInc[3];
+		paddleClockEvent[0] = apple.getClock() + paddleClockInc[0];
+		paddleClockEvent[1] = apple.getClock() + paddleClockInc[1];
+		paddleClockEvent[2] = apple.getClock() + paddleClockInc[2];
+		paddleClockEvent[3] = apple.getClock() + paddleClockInc[3];
 	}
 	
 	/**
@@ -95,6 +95,6 @@ public class Paddle {
 	 * @param	value	Value
 	 */
 	public int getPaddleRegister(int paddle) {
-		return ((((paddleClockEvent[paddle] - apple.clock) & 0x7fffffff) < 0x40000000) ? 0x80 : 0x00); 
+		return ((paddleClockEvent[paddle] >= apple.getClock()) ? 0x80 : 0x00);
 	}
 }
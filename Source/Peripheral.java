@@ -9,7 +9,7 @@
 
 import java.util.Random;
 
-public class Peripheral {
+public class Peripheral implements IoHandler {
 	protected Random rand = new Random();
 
     public Peripheral() {
@@ -0,0 +1,294 @@
+/**
+ * AppleIIGo
+ * Applesoft floating point test: the native FADD, FSUB, FMULT and FDIV
+ * routines must leave the same zero page, registers and flags as the ROM
+ * on random operands, and charge clocks within the ROM's measured range
+ * Released under the GPL
+ *
+ * Needs an Apple II ROM: ant test -Drom=<file> (the 32K applet ROM image, or
+ * a 12K $D000-$FFFF image). Skipped without one.
+ */
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.Random;
+
+public class ApplesoftFloatTest {
+	private static final int OPERANDS = 2000000;
+	private static final int ROUTINE_CLOCKS = 200000;
+
+	private static final int ERROR = 0xd412;	// BASIC error handler
+	private static final int PROGRAM = 0x0800;	// JSR entry, JMP * per entry point
+	private static final int OPERAND_START = 0x0300;
+	private static final int STACK = 0xf0;
+
+	private static final int FAC = 0x9d;
+	private static final int FACSIGN = 0xa2;
+	private static final int SHIFTSIGNEXT = 0xa4;
+	private static final int ARG = 0xa5;
+	private static final int ARGSIGN = 0xaa;
+	private static final int SGNCPR = 0xab;
+	private static final int FACEXT = 0xac;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		String romPath = System.getProperty("rom", "");
+		if (romPath.length() == 0) {
+			System.out.println("ApplesoftFloatTest: skipped (no ROM, run with -Drom=<file>)");
+			return;
+		}
+		int operands = Integer.getInteger("operands", OPERANDS).intValue();
+
+		EmAppleII reference = createApple(romPath);
+		EmAppleII apple = createApple(romPath);
+		apple.setFloatAcceleration(true);
+
+		Field trapCountField = Em6502.class.getDeclaredField("trapCount");
+		trapCountField.setAccessible(true);
+		ApplesoftFloat[] traps = getTraps(apple);
+
+		// Verify every entry point through the trap's own ROM check
+		Random random = new Random(1);
+		for (int call = 0; call < 100 * ApplesoftFloat.ENTRIES.length; call++) {
+			int index = call % ApplesoftFloat.ENTRIES.length;
+			setOperands(apple, random.nextLong(), index);
+			run(apple);
+		}
+		for (int index = 0; index < traps.length; index++)
+			if (traps[index].isMismatch() || !traps[index].isVerified())
+				fail(index, 0, traps[index].isMismatch() ? "differs from the ROM" : "not verified");
+		if (failures != 0)
+			finish();
+
+		// Native against the ROM
+		int[] calls = new int[traps.length];
+		int[] errors = new int[traps.length];
+		int[] declined = new int[traps.length];
+		long[] romClocks = new long[traps.length];
+		long[] romClocksError = new long[traps.length];
+		for (int operand = 0; (operand < operands) && (failures < 10); operand++) {
+			int index = random.nextInt(traps.length);
+			long seed = random.nextLong();
+
+			setOperands(reference, seed, index);
+			setOperands(apple, seed, index);
+			long trapCount = trapCountField.getLong(apple);
+			long referenceClock = reference.getClock();
+			long clock = apple.getClock();
+			boolean isReturned = run(reference);
+			boolean isNativeReturned = run(apple);
+			boolean isNative = (trapCountField.getLong(apple) != trapCount);
+
+			if (!isReturned) {
+				// Overflow and division by zero are left to the ROM (on the zero page as it was)
+				errors[index]++;
+				if (isNative)
+					fail(index, operand, "ran natively where the ROM raised an error");
+				else if ((apple.PC != reference.PC) || (compareState(reference, apple) != null))
+					fail(index, operand, "error at " + hex(apple.PC) + ", expected " +
+						hex(reference.PC) + ", " + compareState(reference, apple));
+				continue;
+			}
+			calls[index]++;
+			if (!isNative)
+				declined[index]++;
+
+			String difference = compareState(reference, apple);
+			if (!isNativeReturned)
+				difference = "did not return";
+			if (difference != null)
+				fail(index, operand, difference);
+
+			long clocks = reference.getClock() - referenceClock;
+			romClocks[index] += clocks;
+			if (isNative)
+				romClocksError[index] += Math.abs(apple.getClock() - clock - clocks);
+		}
+
+		for (int index = 0; index < traps.length; index++) {
+			ApplesoftFloat trap = traps[index];
+			int charged = trap.getChargedClocks();
+			if ((charged < trap.getVerifiedClocksMin()) || (charged > trap.getVerifiedClocksMax()))
+				fail(index, 0, "charges " + charged + " clocks, ROM took " +
+					trap.getVerifiedClocksMin() + "-" + trap.getVerifiedClocksMax());
+
+			int nativeCalls = calls[index] - declined[index];
+			System.out.println("ApplesoftFloatTest: " + hex(ApplesoftFloat.ENTRIES[index]) + " " +
+				calls[index] + " calls (" + declined[index] + " declined, " + errors[index] +
+				" errors), charged " + charged + " clocks, ROM mean " +
+				((calls[index] == 0) ? 0 : romClocks[index] / calls[index]) + ", mean error " +
+				((nativeCalls == 0) ? 0 : romClocksError[index] / nativeCalls));
+		}
+
+		// The cycle-exact engine always runs the ROM
+		apple.setCpuEngine(EmAppleII.CPU_ENGINE_ACCURATE);
+		long trapCount = trapCountField.getLong(apple);
+		for (int index = 0; index < traps.length; index++) {
+			setOperands(apple, random.nextLong(), index);
+			run(apple);
+		}
+		if (trapCountField.getLong(apple) != trapCount)
+			fail(0, 0, "ran natively in the cycle-exact engine");
+
+		finish();
+	}
+
+	/**
+	 * An Apple II with the ROM and a JSR to each entry point
+	 */
+	private static EmAppleII createApple(String romPath) throws IOException {
+		EmAppleII apple = new EmAppleII();
+		File file = new File(romPath);
+		DataInputStream is = new DataInputStream(new FileInputStream(file));
+
+		if (file.length() == 0x3000) {
+			byte[] rom = new byte[0x3000];
+			is.readFully(rom);
+			System.arraycopy(rom, 0, apple.mem, EmAppleII.MEM_ROM_MAIN_LOW, rom.length);
+			apple.invalidateCode();
+		} else if (!apple.loadRom(is)) {
+			System.out.println("ApplesoftFloatTest: " + romPath + " is not an Apple II ROM");
+			System.exit(1);
+		}
+		is.close();
+
+		for (int index = 0; index < ApplesoftFloat.ENTRIES.length; index++) {
+			int address = PROGRAM + index * 8;
+			int entry = ApplesoftFloat.ENTRIES[index];
+			apple.memoryWrite(address, 0x20);
+			apple.memoryWrite(address + 1, entry & 0xff);
+			apple.memoryWrite(address + 2, entry >> 8);
+			apple.memoryWrite(address + 3, 0x4c);
+			apple.memoryWrite(address + 4, (address + 3) & 0xff);
+			apple.memoryWrite(address + 5, (address + 3) >> 8);
+		}
+
+		return apple;
+	}
+
+	private static ApplesoftFloat[] getTraps(EmAppleII apple) throws Exception {
+		Field field = Em6502.class.getDeclaredField("trapRegistry");
+		field.setAccessible(true);
+		CpuTrap[] registry = (CpuTrap[]) field.get(apple);
+		ApplesoftFloat[] traps = new ApplesoftFloat[ApplesoftFloat.ENTRIES.length];
+
+		for (int index = 0; index < traps.length; index++)
+			traps[index] = (ApplesoftFloat) registry[ApplesoftFloat.ENTRIES[index]];
+		return traps;
+	}
+
+	/**
+	 * Random FAC, ARG and memory operand (biased to edge exponents and
+	 * mantissas), random zero page and registers
+	 */
+	private static void setOperands(EmAppleII apple, long seed, int index) {
+		Random random = new Random(seed);
+		int entry = ApplesoftFloat.ENTRIES[index];
+
+		for (int address = 0; address < 0x100; address++)
+			apple.memoryWrite(address, random.nextInt(0x100));
+		setNumber(apple, FAC, random, true);
+		apple.memoryWrite(FACSIGN, random.nextBoolean() ? 0x00 : 0xff);
+		setNumber(apple, ARG, random, true);
+		apple.memoryWrite(ARGSIGN, random.nextBoolean() ? 0x00 : 0xff);
+		apple.memoryWrite(SGNCPR, (apple.memoryRead(FACSIGN) ^ apple.memoryRead(ARGSIGN)) ^
+			((random.nextInt(10) == 0) ? 0x40 : 0x00));
+		apple.memoryWrite(FACEXT, (random.nextInt(4) == 0) ? 0x00 : random.nextInt(0x100));
+		apple.memoryWrite(SHIFTSIGNEXT, (random.nextInt(4) == 0) ? 0xff : 0x00);
+
+		// Packed operand for the memory entry points, now and then in the zero page
+		int pointer = (random.nextInt(20) == 0) ? random.nextInt(0x100) :
+			(OPERAND_START + random.nextInt(0x80));
+		setNumber(apple, pointer, random, false);
+
+		apple.PC = PROGRAM + index * 8;
+		apple.S = STACK;
+		apple.X = random.nextInt(0x100);
+		apple.Y = random.nextInt(0x100);
+		apple.P = (apple.P & ~(Em6502.FLAG_V | Em6502.FLAG_D)) |
+			(random.nextBoolean() ? Em6502.FLAG_V : 0);
+		apple.setFC(random.nextBoolean());
+		if ((entry == ApplesoftFloat.FSUB) || (entry == ApplesoftFloat.FADD) ||
+			(entry == ApplesoftFloat.FMULT) || (entry == ApplesoftFloat.FDIV)) {
+			apple.A = pointer & 0xff;
+			apple.Y = pointer >> 8;
+		} else
+			apple.A = apple.memoryRead(FAC);
+		apple.setFNZ((apple.A & 0x80) != 0, apple.A == 0);
+	}
+
+	private static void setNumber(EmAppleII apple, int address, Random random, boolean isNormal) {
+		int kind = random.nextInt(10);
+		int exponent;
+		if (kind == 0)
+			exponent = 0;
+		else if (kind == 1)
+			exponent = random.nextInt(0x100);
+		else if (kind == 2)
+			exponent = random.nextBoolean() ? (0x01 + random.nextInt(3)) : (0xfc + random.nextInt(4));
+		else
+			exponent = 0x70 + random.nextInt(0x20);
+		apple.memoryWrite(address, exponent);
+
+		for (int offset = 1; offset < 5; offset++) {
+			kind = random.nextInt(8);
+			int mantissa = (kind == 0) ? 0x00 : ((kind == 1) ? 0xff : random.nextInt(0x100));
+			if (isNormal && (offset == 1) && (random.nextInt(20) != 0))
+				mantissa |= 0x80;
+			apple.memoryWrite((address + offset) & 0xffff, mantissa);
+		}
+	}
+
+	/**
+	 * Runs the JSR until it returns (false on a BASIC error or timeout)
+	 */
+	private static boolean run(EmAppleII apple) {
+		int returnAddress = apple.PC + 3;
+		long clockEnd = apple.getClock() + ROUTINE_CLOCKS;
+
+		while ((apple.PC != returnAddress) && (apple.PC != ERROR) &&
+			(apple.getClock() < clockEnd))
+			apple.executeInstructions(1);
+		return (apple.PC == returnAddress);
+	}
+
+	private static String compareState(EmAppleII expected, EmAppleII actual) {
+		for (int address = 0; address < 0x100; address++)
+			if (expected.memoryRead(address) != actual.memoryRead(address))
+				return "zero page " + hex(address) + " " + hex(actual.memoryRead(address)) +
+					", expected " + hex(expected.memoryRead(address));
+
+		String expectedRegisters = getRegisters(expected);
+		String actualRegisters = getRegisters(actual);
+		if (!expectedRegisters.equals(actualRegisters))
+			return actualRegisters + ", expected " + expectedRegisters;
+		return null;
+	}
+
+	private static String getRegisters(EmAppleII apple) {
+		return "A=" + hex(apple.A) + " X=" + hex(apple.X) + " Y=" + hex(apple.Y) +
+			" S=" + hex(apple.S) +
+			" N=" + apple.getFN() + " Z=" + apple.getFZ() + " C=" + apple.getFC() +
+			" V=" + ((apple.P & Em6502.FLAG_V) != 0);
+	}
+
+	private static String hex(int value) {
+		return "$" + Integer.toHexString(value);
+	}
+
+	private static void fail(int index, int operand, String message) {
+		System.out.println("FAIL " + hex(ApplesoftFloat.ENTRIES[index]) + " operand " + operand +
+			": " + message);
+		failures++;
+	}
+
+	private static void finish() {
+		if (failures != 0) {
+			System.out.println("ApplesoftFloatTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("ApplesoftFloatTest: ok");
+		System.exit(0);
+	}
+}
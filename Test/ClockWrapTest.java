@@ -0,0 +1,226 @@
+/**
+ * AppleIIGo
+ * Clock wrap test: paddle and speaker timing must not depend on the
+ * absolute CPU clock, including past the old 31 and 32 bit wrap points
+ * Released under the GPL
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.*;
+
+public class ClockWrapTest {
+	private static final long[] START_CLOCKS = {
+		0L,
+		(1L << 31) - 500,
+		(1L << 32) - 500,
+		1L << 40,
+	};
+
+	private static final int SPEAKER_CLOCKS_PER_SAMPLE = 23;
+	private static final int SPEAKER_FLIPS = 400;
+
+	private static final int IDLE_INTERVALS = 200;
+	private static final int IDLE_INTERVAL_CLOCKS = 17030;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		int[] paddleReference = null;
+		byte[] speakerReference = null;
+
+		for (int index = 0; index < START_CLOCKS.length; index++) {
+			long start = START_CLOCKS[index];
+
+			int[] paddleReads = readPaddles(start);
+			checkPaddles(start, paddleReads);
+			if (paddleReference == null)
+				paddleReference = paddleReads;
+			else
+				checkEqual("paddle reads at clock " + start, paddleReference, paddleReads);
+
+			byte[] speakerSamples = renderSpeaker(start);
+			if (speakerReference == null)
+				speakerReference = speakerSamples;
+			else
+				checkEqual("speaker samples at clock " + start, speakerReference, speakerSamples);
+		}
+
+		checkIdleLoop();
+
+		if (failures != 0) {
+			System.out.println("ClockWrapTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("ClockWrapTest: ok");
+	}
+
+	/**
+	 * Reads all four paddles on every cycle after a trigger
+	 */
+	private static int[] readPaddles(long start) {
+		EmAppleII apple = new EmAppleII();
+		int[] positions = {0, 1, 127, 255};
+		int cycles = Paddle.PADDLE_HIGH * 11 + 8 + 32;
+		int[] reads = new int[4 * cycles];
+
+		for (int paddle = 0; paddle < 4; paddle++)
+			apple.paddle.setPaddlePos(paddle, positions[paddle]);
+
+		apple.clock = start;
+		apple.memoryRead(0xc070);
+		for (int cycle = 0; cycle < cycles; cycle++) {
+			apple.clock = start + cycle;
+			for (int paddle = 0; paddle < 4; paddle++)
+				reads[paddle * cycles + cycle] = apple.memoryRead(0xc064 + paddle) & 0x80;
+		}
+
+		return reads;
+	}
+
+	/**
+	 * A paddle reads $80 up to and including the cycle its RC timer runs out
+	 */
+	private static void checkPaddles(long start, int[] reads) {
+		int[] positions = {0, 1, 127, 255};
+		int cycles = reads.length / 4;
+
+		for (int paddle = 0; paddle < 4; paddle++) {
+			int timeout = positions[paddle] * 11 + 8;
+			for (int cycle = 0; cycle < cycles; cycle++) {
+				int expected = (cycle <= timeout) ? 0x80 : 0x00;
+				if (reads[paddle * cycles + cycle] != expected) {
+					fail("paddle " + paddle + " at clock " + start + " + " + cycle +
+						" read " + reads[paddle * cycles + cycle] + ", expected " + expected);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records speaker flips from a fixed pattern and renders them to samples
+	 */
+	private static byte[] renderSpeaker(long start) throws Exception {
+		EmAppleII apple = new EmAppleII();
+		AppleSpeaker speaker = new AppleSpeaker(apple);
+		int samples = 0x1000;
+
+		setField(speaker, "speakerClocksPerSample", Integer.valueOf(SPEAKER_CLOCKS_PER_SAMPLE));
+		setField(speaker, "bufferSize", Integer.valueOf(samples * 2));
+		setField(speaker, "buffer", new byte[samples * 2]);
+
+		apple.clock = start;
+		speaker.skipSpeaker();
+
+		long flipClock = start;
+		for (int flip = 0; flip < SPEAKER_FLIPS; flip++) {
+			flipClock += 17 + (flip * 37) % 211;
+			apple.clock = flipClock;
+			apple.memoryRead(0xc030);
+		}
+		apple.clock = flipClock + 1000;
+		speaker.refreshSpeaker();
+
+		Method fillBuffer = AppleSpeaker.class.getDeclaredMethod("fillBuffer");
+		fillBuffer.setAccessible(true);
+		byte[] buffer = (byte[]) getField(speaker, "buffer");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		int bytes;
+		while ((bytes = ((Integer) fillBuffer.invoke(speaker)).intValue()) > 0)
+			output.write(buffer, 0, bytes);
+
+		byte[] result = output.toByteArray();
+		int expected = (int) ((flipClock + 1000 - start - SPEAKER_CLOCKS_PER_SAMPLE +
+			SPEAKER_CLOCKS_PER_SAMPLE - 1) / SPEAKER_CLOCKS_PER_SAMPLE) * 2;
+		if (result.length != expected)
+			fail("speaker at clock " + start + " rendered " + result.length +
+				" bytes, expected " + expected);
+
+		return result;
+	}
+
+	/**
+	 * Skipping a keyboard polling loop must never move the clock backwards,
+	 * even when events leave only a clock or two between them (and it must
+	 * still skip across the longer gaps)
+	 */
+	private static void checkIdleLoop() throws Exception {
+		final EmAppleII apple = new EmAppleII();
+		int[] loop = {0x2c, 0x00, 0xc0, 0x10, 0xfb};	// BIT $C000, BPL *-3
+
+		apple.checkInterrupts();	// Take the power-on reset first
+		for (int i = 0; i < loop.length; i++)
+			apple.memoryWrite(0x0800 + i, loop[i]);
+		apple.PC = 0x0800;
+
+		final Field idleClocksField = EmAppleII.class.getDeclaredField("idleClocksCumulative");
+		idleClocksField.setAccessible(true);
+		final long[] last = {apple.clock, 0};
+		apple.scheduleEvent(apple.clock + 1, new ClockEvent() {
+			private int events;
+
+			public void clockEvent(long clock) {
+				long idleClocks = getLong(idleClocksField, apple);
+				if (apple.clock < last[0])
+					fail("idle loop moved the clock from " + last[0] + " back to " + apple.clock);
+				if (idleClocks < last[1])
+					fail("idle loop skipped " + (idleClocks - last[1]) + " clocks");
+				last[0] = apple.clock;
+				last[1] = idleClocks;
+				events++;
+				int gap = ((events % 16) == 0) ? (2000 + events % 7) : (1 + events % 3);
+				apple.scheduleEvent(apple.clock + gap, this);
+			}
+		});
+
+		Method executeInterval = EmAppleII.class.getDeclaredMethod("executeInterval", int.class);
+		executeInterval.setAccessible(true);
+		for (int interval = 0; interval < IDLE_INTERVALS; interval++) {
+			long start = apple.clock;
+			apple.setIdleSkip(true);	// Detect the loop again, from wherever the CPU stopped
+			executeInterval.invoke(apple, Integer.valueOf(IDLE_INTERVAL_CLOCKS));
+			if (apple.clock < start + IDLE_INTERVAL_CLOCKS) {
+				fail("idle interval ran from " + start + " to " + apple.clock);
+				break;
+			}
+		}
+
+		if (getLong(idleClocksField, apple) <= 0)
+			fail("idle loop was never skipped");
+	}
+
+	private static long getLong(Field field, Object object) {
+		try {
+			return field.getLong(object);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void setField(Object object, String name, Object value) throws Exception {
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(object, value);
+	}
+
+	private static Object getField(Object object, String name) throws Exception {
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(object);
+	}
+
+	private static void checkEqual(String what, int[] expected, int[] actual) {
+		if (!java.util.Arrays.equals(expected, actual))
+			fail(what + " differ from clock 0");
+	}
+
+	private static void checkEqual(String what, byte[] expected, byte[] actual) {
+		if (!java.util.Arrays.equals(expected, actual))
+			fail(what + " differ from clock 0");
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAIL " + message);
+		failures++;
+	}
+}
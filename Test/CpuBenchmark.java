@@ -0,0 +1,107 @@
+/**
+ * AppleIIGo
+ * CPU benchmark: emulated MHz of each execution engine on a loop mixing
+ * loads, stores, ALU, shifts, compares, branches and subroutine calls
+ * Released under the GPL
+ */
+
+public class CpuBenchmark {
+	private static final int ROUNDS = 10;
+	private static final int ROUND_CLOCKS = 20000000;
+	private static final int SLICE_CLOCKS = 17030;	// One video frame, as EmAppleII runs it
+
+	private static final String[] ENGINE_NAMES = {
+		"interpreter", "pre-decoded", "pre-decoded+fusion", "cycle-exact", "blocks",
+	};
+
+	private static final int[] PROGRAM = {
+		0xa0, 0x00,			// 0800 LDY #$00
+		0xa2, 0x00,			// 0802 LDX #$00
+		0xbd, 0x00, 0x10,	// 0804 LDA $1000,X
+		0x18,				// 0807 CLC
+		0x69, 0x03,			// 0808 ADC #$03
+		0x0a,				// 080A ASL A
+		0x45, 0x10,			// 080B EOR $10
+		0x9d, 0x00, 0x11,	// 080D STA $1100,X
+		0xc9, 0x80,			// 0810 CMP #$80
+		0x90, 0x02,			// 0812 BCC $0816
+		0xe6, 0x11,			// 0814 INC $11
+		0xe8,				// 0816 INX
+		0xd0, 0xeb,			// 0817 BNE $0804
+		0x20, 0x30, 0x08,	// 0819 JSR $0830
+		0x88,				// 081C DEY
+		0xd0, 0xe3,			// 081D BNE $0802
+		0x4c, 0x00, 0x08,	// 081F JMP $0800
+	};
+	private static final int[] SUBROUTINE = {
+		0xa5, 0x11,			// 0830 LDA $11
+		0x85, 0x12,			// 0832 STA $12
+		0xa9, 0x00,			// 0834 LDA #$00
+		0x85, 0x11,			// 0836 STA $11
+		0x60,				// 0838 RTS
+	};
+
+	public static void main(String[] args) {
+		for (int engine = 0; engine < ENGINE_NAMES.length; engine++) {
+			Em6502 cpu = createCpu();
+			cpu.setInstructionFusion(engine == 2);
+			double best = 0;
+
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				long clocks = run(cpu, engine, ROUND_CLOCKS);
+				double mhz = clocks * 1000.0 / (System.nanoTime() - start);
+				best = Math.max(best, mhz);
+			}
+			System.out.println("CpuBenchmark: " + ENGINE_NAMES[engine] + " " +
+				Math.round(best) + " MHz (best of " + ROUNDS + ")");
+		}
+	}
+
+	/**
+	 * Runs the engine in frame sized slices
+	 */
+	private static long run(Em6502 cpu, int engine, int clocks) {
+		long done = 0;
+
+		while (done < clocks) {
+			int clocksNeeded = SLICE_CLOCKS;
+			switch (engine) {
+			case 0:
+				while (clocksNeeded > 0)
+					clocksNeeded -= cpu.executeInstructions(1 + (clocksNeeded >> 3));
+				break;
+			case 1:
+			case 2:
+				while (clocksNeeded > 0)
+					clocksNeeded -= cpu.executeDecodedInstructions(1 + (clocksNeeded >> 3));
+				break;
+			case 3:
+				while (clocksNeeded > 0)
+					clocksNeeded -= cpu.executeAccurateInstructions(1 + (clocksNeeded >> 3));
+				break;
+			case 4:
+				clocksNeeded -= cpu.executeBlocks(clocksNeeded);
+				break;
+			}
+			done += SLICE_CLOCKS - clocksNeeded;
+		}
+
+		return done;
+	}
+
+	private static Em6502 createCpu() {
+		Em6502 cpu = new Em6502();
+
+		cpu.mem = new byte[0x10200];
+		for (int i = 0; i < PROGRAM.length; i++)
+			cpu.mem[0x0800 + i] = (byte) PROGRAM[i];
+		for (int i = 0; i < SUBROUTINE.length; i++)
+			cpu.mem[0x0830 + i] = (byte) SUBROUTINE[i];
+		for (int i = 0; i < 0x100; i++)
+			cpu.mem[0x1000 + i] = (byte) (i * 7);
+		cpu.PC = 0x0800;
+
+		return cpu;
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ * AppleIIGo
+ * CPU engine test: every execution engine must leave the same registers,
+ * flags, clock and memory as the reference interpreter (executeInstructions)
+ * on random programs, including self-modifying code, fusable instruction
+ * pairs and memory fill/copy loops
+ * Released under the GPL
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class CpuEngineTest {
+	private static final int SEEDS = 2000;
+	private static final int STEPS = 2000;
+
+	private static final int MEMORY_SIZE = 0x10200;	// Indexed addresses may run past $FFFF
+	private static final int PROGRAM_START = 0x0800;
+	private static final int PROGRAM_END = 0x1000;
+
+	private static final int ENGINE_DECODED = 0;
+	private static final int ENGINE_FUSED = 1;
+	private static final int ENGINE_LOOPS = 2;
+	private static final int ENGINE_ACCURATE = 3;
+	private static final String[] ENGINE_NAMES = {
+		"pre-decoded", "pre-decoded+fusion", "pre-decoded+fusion+loops", "cycle-exact",
+	};
+
+	private static final int FLAGS_STORED = Em6502.FLAG_V | Em6502.FLAG_D | Em6502.FLAG_I |
+		Em6502.FLAG_B | Em6502.FLAG_R;
+
+	private static int failures = 0;
+	private static long fusedCount;
+	private static long loopCount;
+
+	public static void main(String[] args) {
+		for (int engine = 0; engine < ENGINE_NAMES.length; engine++) {
+			long instructions = 0;
+			for (int seed = 0; (seed < SEEDS) && (failures == 0); seed++)
+				instructions += compare(engine, seed);
+			System.out.println("CpuEngineTest: " + ENGINE_NAMES[engine] + " " + instructions +
+				" instructions");
+		}
+
+		// The fusion and loop runs must actually have exercised their handlers
+		if ((failures == 0) && (fusedCount == 0))
+			fail(ENGINE_FUSED, 0, 0, "no fused pairs executed");
+		if ((failures == 0) && (loopCount == 0))
+			fail(ENGINE_LOOPS, 0, 0, "no memory loops executed in bulk");
+
+		if (failures != 0) {
+			System.out.println("CpuEngineTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("CpuEngineTest: ok");
+	}
+
+	/**
+	 * Runs one random program on an engine and on the reference interpreter,
+	 * comparing after every dispatch (returns the instructions run)
+	 */
+	private static long compare(int engine, int seed) {
+		Em6502 reference = createCpu(seed);
+		Em6502 cpu = createCpu(seed);
+		long instructions = 0;
+
+		cpu.setInstructionFusion((engine == ENGINE_FUSED) || (engine == ENGINE_LOOPS));
+		cpu.setLoopAcceleration(engine == ENGINE_LOOPS);
+
+		for (int step = 0; step < STEPS; step++) {
+			long clockStart = cpu.getClock();
+			switch (engine) {
+			case ENGINE_DECODED:
+			case ENGINE_FUSED:
+			case ENGINE_LOOPS:
+				cpu.executeDecodedInstructions(1);
+				break;
+			case ENGINE_ACCURATE:
+				cpu.executeAccurateInstructions(1);
+				break;
+			}
+
+			// A dispatch may run several instructions; catch up instruction by instruction
+			if (engine == ENGINE_ACCURATE) {
+				reference.executeInstructions(1);
+				instructions++;
+				if (cpu.getClock() < (clockStart + 2))
+					return fail(engine, seed, step, "ran " + (cpu.getClock() - clockStart) + " clocks");
+			} else {
+				do {
+					reference.executeInstructions(1);
+					instructions++;
+				} while (reference.getClock() < cpu.getClock());
+				if (reference.getClock() != cpu.getClock())
+					return fail(engine, seed, step, "clock " + cpu.getClock() + ", expected " +
+						reference.getClock());
+			}
+
+			String difference = compareRegisters(reference, cpu);
+			if (difference != null)
+				return fail(engine, seed, step, difference);
+		}
+
+		if (!Arrays.equals(reference.mem, cpu.mem))
+			return fail(engine, seed, STEPS, "memory differs");
+
+		fusedCount += cpu.fusedCount;
+		loopCount += cpu.loopCount;
+
+		return instructions;
+	}
+
+	private static String compareRegisters(Em6502 expected, Em6502 actual) {
+		String expectedRegisters = getRegisters(expected);
+		String actualRegisters = getRegisters(actual);
+
+		if (expectedRegisters.equals(actualRegisters))
+			return null;
+		return actualRegisters + ", expected " + expectedRegisters;
+	}
+
+	private static String getRegisters(Em6502 cpu) {
+		int flags = (cpu.P & FLAGS_STORED) |
+			(cpu.getFN() ? Em6502.FLAG_N : 0) |
+			(cpu.getFZ() ? Em6502.FLAG_Z : 0) |
+			(cpu.getFC() ? Em6502.FLAG_C : 0);
+
+		return "PC=" + Integer.toHexString(cpu.PC & 0xffff) +
+			" A=" + Integer.toHexString(cpu.A) +
+			" X=" + Integer.toHexString(cpu.X) +
+			" Y=" + Integer.toHexString(cpu.Y) +
+			" S=" + Integer.toHexString(cpu.S) +
+			" P=" + Integer.toHexString(flags);
+	}
+
+	/**
+	 * A CPU with random memory and registers, and a random program at PROGRAM_START
+	 */
+	private static Em6502 createCpu(int seed) {
+		Random random = new Random(seed);
+		Em6502 cpu = new Em6502();
+
+		cpu.mem = new byte[MEMORY_SIZE];
+		random.nextBytes(cpu.mem);
+
+		int pc = PROGRAM_START;
+		while (pc < PROGRAM_END)
+			pc = emitCode(cpu.mem, pc, random);
+
+		cpu.PC = PROGRAM_START;
+		cpu.A = random.nextInt(0x100);
+		cpu.X = random.nextInt(0x100);
+		cpu.Y = random.nextInt(0x100);
+		cpu.S = random.nextInt(0x100);
+		cpu.P = (random.nextInt(0x100) & (Em6502.FLAG_V | Em6502.FLAG_D | Em6502.FLAG_I)) |
+			Em6502.FLAG_B | Em6502.FLAG_R;
+		cpu.setFNZ(random.nextBoolean(), random.nextBoolean());
+		cpu.setFC(random.nextBoolean());
+
+		return cpu;
+	}
+
+	/**
+	 * Emits a random instruction, fusable pair or memory loop
+	 */
+	private static int emitCode(byte[] mem, int pc, Random random) {
+		int kind = random.nextInt(20);
+
+		if (kind < 12) {
+			int opcode = random.nextInt(0x100);
+			mem[pc] = (byte) opcode;
+			mem[pc + 1] = (byte) random.nextInt(0x100);
+			mem[pc + 2] = (byte) (0x02 + random.nextInt(0x1e));	// Mostly RAM near the program
+			return pc + 1 + random.nextInt(3);
+		}
+
+		if (kind < 17) {
+			int[][] pairs = {
+				{0xa9, -1, 0x85, -1},
+				{0xa9, -1, 0x8d, -1, -2},
+				{0xa5, -1, 0x85, -1},
+				{0xad, -1, -2, 0x8d, -1, -2},
+				{0xca, 0xd0, -3},
+				{0x88, 0xd0, -3},
+				{0xe8, 0xd0, -3},
+				{0xc8, 0xd0, -3},
+				{0xe6, -1, 0xd0, -3},
+				{0xc9, -1, 0xf0, -3},
+				{0xc9, -1, 0xd0, -3},
+			};
+			int[] pair = pairs[random.nextInt(pairs.length)];
+			for (int i = 0; i < pair.length; i++) {
+				int value = pair[i];
+				if (value == -1)
+					value = random.nextInt(0x100);
+				else if (value == -2)
+					value = 0x02 + random.nextInt(0x1e);
+				else if (value == -3)
+					value = random.nextInt(0x20) - 0x18;
+				mem[pc++] = (byte) value;
+			}
+			return pc;
+		}
+
+		// [LDA source] STA dest IN(C/D)(X/Y) BNE loop, after loading the index
+		boolean isIndexY = random.nextBoolean();
+		mem[pc++] = (byte) (isIndexY ? 0xa0 : 0xa2);
+		mem[pc++] = (byte) random.nextInt(0x100);
+		int loop = pc;
+		if (random.nextBoolean()) {
+			if (isIndexY && random.nextBoolean()) {
+				mem[pc++] = (byte) 0xb1;
+				mem[pc++] = (byte) random.nextInt(0x100);
+			} else {
+				mem[pc++] = (byte) (isIndexY ? 0xb9 : 0xbd);
+				mem[pc++] = (byte) random.nextInt(0x100);
+				mem[pc++] = (byte) (0x02 + random.nextInt(0xbe));
+			}
+		}
+		if (isIndexY && random.nextBoolean()) {
+			mem[pc++] = (byte) 0x91;
+			mem[pc++] = (byte) random.nextInt(0x100);
+		} else {
+			mem[pc++] = (byte) (isIndexY ? 0x99 : 0x9d);
+			mem[pc++] = (byte) random.nextInt(0x100);
+			mem[pc++] = (byte) (0x20 + random.nextInt(0xa0));
+		}
+		if (random.nextBoolean())
+			mem[pc++] = (byte) (isIndexY ? 0xc8 : 0xe8);
+		else
+			mem[pc++] = (byte) (isIndexY ? 0x88 : 0xca);
+		mem[pc++] = (byte) 0xd0;
+		mem[pc] = (byte) (loop - (pc + 1));
+		return pc + 1;
+	}
+
+	private static long fail(int engine, int seed, int step, String message) {
+		System.out.println("FAIL " + ENGINE_NAMES[engine] + " seed " + seed + " step " + step +
+			": " + message);
+		failures++;
+		return 0;
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * AppleIIGo
+ * Hires span test: scanlines rendered from the precalculated spans must be
+ * identical to the word-at-a-time hires renderer they replaced, in green
+ * and color modes
+ * Released under the GPL
+ */
+
+import java.lang.reflect.*;
+import java.util.Random;
+
+public class HiresSpanTest {
+	private static final int LINES = 50000;
+	private static final int LINE_BYTES = 40;
+	private static final int LINE_PIXELS = LINE_BYTES * 7 * 2;
+	private static final long SEED = 23;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		AppleDisplay display = new AppleDisplay(new EmAppleII());
+
+		checkColorMode(display, AppleDisplay.COLORMODE_GREEN, "green");
+		checkColorMode(display, AppleDisplay.COLORMODE_COLOR, "color");
+
+		if (failures != 0) {
+			System.out.println("HiresSpanTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("HiresSpanTest: ok");
+		System.exit(0);
+	}
+
+	/**
+	 * Renders random scanlines (and all-equal ones) both ways
+	 */
+	private static void checkColorMode(AppleDisplay display, int colorMode, String name) throws Exception {
+		// The display thread precalculates the palette and tables before its next frame
+		display.setColorMode(colorMode);
+		Method precalcDisplay = AppleDisplay.class.getDeclaredMethod("precalcDisplay");
+		precalcDisplay.setAccessible(true);
+		precalcDisplay.invoke(display);
+
+		byte[] frameMemory = (byte[]) getField(display, "frameMemory");
+		int[] displayImageBuffer = (int[]) getField(display, "displayImageBuffer");
+		int[] hiresLookup = (int[]) getField(display, "hiresLookup");
+		int[] hiresEvenOddToWord = (int[]) getField(display, "hiresEvenOddToWord");
+		int[] displayPalette = (int[]) getField(display, "displayPalette");
+		Method renderHiresScanLine = AppleDisplay.class.getDeclaredMethod("renderHiresScanLine",
+			int.class, int.class);
+		renderHiresScanLine.setAccessible(true);
+
+		Random random = new Random(SEED);
+		int[] expected = new int[LINE_PIXELS];
+		for (int line = 0; line < (LINES + 0x100); line++) {
+			for (int column = 0; column < LINE_BYTES; column++)
+				frameMemory[column] = (byte) ((line < 0x100) ? line : random.nextInt(0x100));
+
+			renderHiresScanLine.invoke(display, Integer.valueOf(0), Integer.valueOf(0));
+			renderReference(frameMemory, expected, hiresLookup, hiresEvenOddToWord, displayPalette);
+
+			for (int pixel = 0; pixel < LINE_PIXELS; pixel++)
+				if (displayImageBuffer[pixel] != expected[pixel]) {
+					fail(name + " line " + line + " pixel " + pixel + " is " +
+						Integer.toHexString(displayImageBuffer[pixel]) + ", expected " +
+						Integer.toHexString(expected[pixel]));
+					return;
+				}
+		}
+	}
+
+	/**
+	 * The replaced renderer: the line is built as 28 bit words from byte pairs,
+	 * each extended with the next pair's first bits, and 4 pixels are looked up
+	 * at a time from a window of previous, current and next bits
+	 */
+	private static void renderReference(byte[] memory, int[] pixels,
+		int[] hiresLookup, int[] hiresEvenOddToWord, int[] displayPalette) {
+		int[] word = new int[2];
+		int destOffset = 0;
+
+		calcNextWord(word, memory[0], memory[1], hiresEvenOddToWord);
+		for (int address = 2; address < LINE_BYTES; address += 2) {
+			word[0] = word[1];
+			calcNextWord(word, memory[address], memory[address + 1], hiresEvenOddToWord);
+			destOffset = renderWord(pixels, destOffset, word[0], hiresLookup, displayPalette);
+		}
+		word[0] = word[1];
+		renderWord(pixels, destOffset, word[0], hiresLookup, displayPalette);
+	}
+
+	private static void calcNextWord(int[] word, int byteEven, int byteOdd, int[] hiresEvenOddToWord) {
+		int next = word[0] >> 28;
+		next |= hiresEvenOddToWord[(byteEven & 0xff) | ((next & 0x2) << 7)] << 2;
+		next |= hiresEvenOddToWord[(byteOdd & 0xff) | ((next & 0x8000) >> 7)] << 16;
+		word[0] |= (next << 28);
+		word[1] = next;
+	}
+
+	private static int renderWord(int[] pixels, int destOffset, int word,
+		int[] hiresLookup, int[] displayPalette) {
+		for (int group = 0; group < 7; group++) {
+			int nibbles = hiresLookup[(word >> (group * 4)) & 0xff];
+			for (int pixel = 0; pixel < 4; pixel++)
+				pixels[destOffset++] = displayPalette[(nibbles >> (pixel * 4)) & 0xf];
+		}
+		return destOffset;
+	}
+
+	private static Object getField(Object object, String name) throws Exception {
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(object);
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAIL " + message);
+		failures++;
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * AppleIIGo
+ * Memory map test: the precomputed soft switch tables must equal the
+ * per-switch offset computation they replaced, in all 2048 states
+ * Released under the GPL
+ */
+
+import java.lang.reflect.*;
+
+public class MemoryMapTest {
+	// Switch state bits (test numbering)
+	private static final int AUX_READ = (1 << 0);
+	private static final int AUX_WRITE = (1 << 1);
+	private static final int STORE80 = (1 << 2);
+	private static final int PAGE2 = (1 << 3);
+	private static final int HIRES = (1 << 4);
+	private static final int LC_READ = (1 << 5);
+	private static final int LC_WRITE = (1 << 6);
+	private static final int LC_BANK2 = (1 << 7);
+	private static final int AUX_ZP = (1 << 8);
+	private static final int ROM_INTERNAL = (1 << 9);
+	private static final int ROM_C3_EXTERNAL = (1 << 10);
+	private static final int STATES = (1 << 11);
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		EmAppleII apple = new EmAppleII();
+		boolean[] isStateSeen = new boolean[STATES];
+		int[] lastReadOffset = null;
+		int statesSeen = 0;
+
+		// Gray code order: every step flips one switch (or one $C08x access)
+		for (int step = 0; step < STATES; step++) {
+			int state = step ^ (step >> 1);
+			int[] generation = apple.codeGeneration.clone();
+
+			setSwitches(apple, state);
+
+			int[] readOffset = (int[]) getField(apple, "memoryReadOffset");
+			int[] writeOffset = (int[]) getField(apple, "memoryWriteOffset");
+			int[] expectedReadOffset = new int[0x101];
+			int[] expectedWriteOffset = new int[0x101];
+			buildReference(state, expectedReadOffset, expectedWriteOffset);
+
+			check(state, "read", expectedReadOffset, readOffset);
+			check(state, "write", expectedWriteOffset, writeOffset);
+			if (apple.zeroPageOffset != expectedReadOffset[0x00])
+				fail("state " + hex(state) + " zero page offset " + hex(apple.zeroPageOffset));
+
+			// Cached code is invalidated exactly in the pages whose read mapping changed
+			if (lastReadOffset != null)
+				for (int page = 0; page < 0x101; page++) {
+					int bumps = apple.codeGeneration[page] - generation[page];
+					int expected = (lastReadOffset[page] != expectedReadOffset[page]) ? 1 : 0;
+					if (bumps != expected) {
+						fail("state " + hex(state) + " page " + hex(page) + " bumped " + bumps +
+							" times, expected " + expected);
+						break;
+					}
+				}
+			lastReadOffset = expectedReadOffset;
+
+			int mapState = ((Integer) getField(apple, "memoryMapState")).intValue();
+			if (!isStateSeen[mapState]) {
+				isStateSeen[mapState] = true;
+				statesSeen++;
+			}
+		}
+
+		if (statesSeen != STATES)
+			fail("reached " + statesSeen + " distinct map states, expected " + STATES);
+
+		if (failures != 0) {
+			System.out.println("MemoryMapTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("MemoryMapTest: ok (" + statesSeen + " states)");
+	}
+
+	/**
+	 * Drives the soft switches to a state
+	 */
+	private static void setSwitches(EmAppleII apple, int state) {
+		apple.memoryWrite(0xc000 + (((state & STORE80) != 0) ? 0x01 : 0x00), 0);
+		apple.memoryWrite(0xc002 + (((state & AUX_READ) != 0) ? 0x01 : 0x00), 0);
+		apple.memoryWrite(0xc004 + (((state & AUX_WRITE) != 0) ? 0x01 : 0x00), 0);
+		apple.memoryWrite(0xc006 + (((state & ROM_INTERNAL) != 0) ? 0x01 : 0x00), 0);
+		apple.memoryWrite(0xc008 + (((state & AUX_ZP) != 0) ? 0x01 : 0x00), 0);
+		apple.memoryWrite(0xc00a + (((state & ROM_C3_EXTERNAL) != 0) ? 0x01 : 0x00), 0);
+		apple.memoryRead(0xc054 + (((state & PAGE2) != 0) ? 0x01 : 0x00));
+		apple.memoryRead(0xc056 + (((state & HIRES) != 0) ? 0x01 : 0x00));
+
+		// $C080-$C08F: bit 3 selects bank 1, bits 0-1 select read/write enables
+		int lcSwitch = ((state & LC_BANK2) != 0) ? 0x00 : 0x08;
+		boolean isLcRead = ((state & LC_READ) != 0);
+		boolean isLcWrite = ((state & LC_WRITE) != 0);
+		if (isLcRead && isLcWrite)
+			lcSwitch |= 0x03;
+		else if (isLcRead)
+			lcSwitch |= 0x00;
+		else if (isLcWrite)
+			lcSwitch |= 0x01;
+		else
+			lcSwitch |= 0x02;
+		apple.memoryRead(0xc080 + lcSwitch);
+	}
+
+	/**
+	 * The per-switch offset computation the tables replaced
+	 * (updateMainMemoryMap, updateIOMemoryMap and updateLCMemoryMap, with
+	 * pages 00-01 mapped to the main or aux zero page)
+	 */
+	private static void buildReference(int state, int[] readOffset, int[] writeOffset) {
+		int zpOffset = ((state & AUX_ZP) != 0) ?
+			(EmAppleII.MEM_AUX_ZP - EmAppleII.MEM_PHYS_ZP) :
+			(EmAppleII.MEM_MAIN_ZP - EmAppleII.MEM_PHYS_ZP);
+		for (int page = 0x00; page < 0x02; page++)
+			readOffset[page] = writeOffset[page] = zpOffset;
+
+		// Main memory
+		int ramReadOffset, textReadOffset, hiresReadOffset;
+		int ramWriteOffset, textWriteOffset, hiresWriteOffset;
+
+		textReadOffset = hiresReadOffset = ramReadOffset = ((state & AUX_READ) != 0) ?
+			(EmAppleII.MEM_AUX_RAM1 - EmAppleII.MEM_PHYS_RAM1) :
+			(EmAppleII.MEM_MAIN_RAM1 - EmAppleII.MEM_PHYS_RAM1);
+		textWriteOffset = hiresWriteOffset = ramWriteOffset = ((state & AUX_WRITE) != 0) ?
+			(EmAppleII.MEM_AUX_RAM1 - EmAppleII.MEM_PHYS_RAM1) :
+			(EmAppleII.MEM_MAIN_RAM1 - EmAppleII.MEM_PHYS_RAM1);
+
+		if ((state & STORE80) != 0) {
+			textWriteOffset = textReadOffset = ((state & PAGE2) != 0) ?
+				(EmAppleII.MEM_AUX_TEXT - EmAppleII.MEM_PHYS_TEXT) :
+				(EmAppleII.MEM_MAIN_TEXT - EmAppleII.MEM_PHYS_TEXT);
+
+			if ((state & HIRES) != 0)
+				hiresWriteOffset = hiresReadOffset = textReadOffset;
+		}
+
+		for (int page = 0x02; page < 0xc0; page++) {
+			if ((page >= 0x04) && (page < 0x08)) {
+				readOffset[page] = textReadOffset;
+				writeOffset[page] = textWriteOffset;
+			} else if ((page >= 0x20) && (page < 0x40)) {
+				readOffset[page] = hiresReadOffset;
+				writeOffset[page] = hiresWriteOffset;
+			} else {
+				readOffset[page] = ramReadOffset;
+				writeOffset[page] = ramWriteOffset;
+			}
+		}
+
+		// Slot ROM
+		int romOffset = ((state & ROM_INTERNAL) != 0) ?
+			(EmAppleII.MEM_ROM_INTERNAL - EmAppleII.MEM_PHYS_IO) :
+			(EmAppleII.MEM_ROM_EXTERNAL - EmAppleII.MEM_PHYS_IO);
+		for (int page = 0xc1; page < 0xd0; page++) {
+			readOffset[page] = romOffset;
+			writeOffset[page] = (EmAppleII.MEM_WASTE - EmAppleII.MEM_PHYS_IO);
+		}
+		readOffset[0xc3] = ((state & ROM_C3_EXTERNAL) != 0) ?
+			(EmAppleII.MEM_ROM_EXTERNAL - EmAppleII.MEM_PHYS_IO) :
+			(EmAppleII.MEM_ROM_INTERNAL - EmAppleII.MEM_PHYS_IO);
+
+		// Language card
+		boolean isLcBank2 = ((state & LC_BANK2) != 0);
+		boolean isAuxZeroPage = ((state & AUX_ZP) != 0);
+		int lcReadOffset, lcReadOffsetHigh;
+		int lcWriteOffset, lcWriteOffsetHigh;
+
+		if ((state & LC_READ) == 0) {
+			lcReadOffset = (EmAppleII.MEM_ROM_MAIN_LOW - EmAppleII.MEM_PHYS_ROM_LOW);
+			lcReadOffsetHigh = (EmAppleII.MEM_ROM_MAIN_LOW - EmAppleII.MEM_PHYS_ROM_LOW);
+		} else if (isAuxZeroPage) {
+			lcReadOffset = isLcBank2 ? (EmAppleII.MEM_AUX_LC2 - EmAppleII.MEM_PHYS_ROM_LOW) :
+				(EmAppleII.MEM_AUX_LC1 - EmAppleII.MEM_PHYS_ROM_LOW);
+			lcReadOffsetHigh = (EmAppleII.MEM_AUX_LC_HIGH - EmAppleII.MEM_PHYS_ROM_HIGH);
+		} else {
+			lcReadOffset = isLcBank2 ? (EmAppleII.MEM_MAIN_LC2 - EmAppleII.MEM_PHYS_ROM_LOW) :
+				(EmAppleII.MEM_MAIN_LC1 - EmAppleII.MEM_PHYS_ROM_LOW);
+			lcReadOffsetHigh = (EmAppleII.MEM_MAIN_LC_HIGH - EmAppleII.MEM_PHYS_ROM_HIGH);
+		}
+
+		if ((state & LC_WRITE) == 0) {
+			lcWriteOffset = (EmAppleII.MEM_WASTE - EmAppleII.MEM_PHYS_ROM_LOW);
+			lcWriteOffsetHigh = (EmAppleII.MEM_WASTE - EmAppleII.MEM_PHYS_ROM_HIGH);
+		} else if (isAuxZeroPage) {
+			lcWriteOffset = isLcBank2 ? (EmAppleII.MEM_AUX_LC2 - EmAppleII.MEM_PHYS_ROM_LOW) :
+				(EmAppleII.MEM_AUX_LC1 - EmAppleII.MEM_PHYS_ROM_LOW);
+			lcWriteOffsetHigh = (EmAppleII.MEM_AUX_LC_HIGH - EmAppleII.MEM_PHYS_ROM_HIGH);
+		} else {
+			lcWriteOffset = isLcBank2 ? (EmAppleII.MEM_MAIN_LC2 - EmAppleII.MEM_PHYS_ROM_LOW) :
+				(EmAppleII.MEM_MAIN_LC1 - EmAppleII.MEM_PHYS_ROM_LOW);
+			lcWriteOffsetHigh = (EmAppleII.MEM_MAIN_LC_HIGH - EmAppleII.MEM_PHYS_ROM_HIGH);
+		}
+
+		for (int page = 0xd0; page < 0x100; page++) {
+			readOffset[page] = (page < 0xe0) ? lcReadOffset : lcReadOffsetHigh;
+			writeOffset[page] = (page < 0xe0) ? lcWriteOffset : lcWriteOffsetHigh;
+		}
+	}
+
+	private static void check(int state, String what, int[] expected, int[] actual) {
+		for (int page = 0; page < 0x101; page++)
+			if (expected[page] != actual[page]) {
+				fail("state " + hex(state) + " page " + hex(page) + " " + what + " offset " +
+					hex(actual[page]) + ", expected " + hex(expected[page]));
+				return;
+			}
+	}
+
+	private static Object getField(Object object, String name) throws Exception {
+		Field field = EmAppleII.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(object);
+	}
+
+	private static String hex(int value) {
+		return "$" + Integer.toHexString(value);
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAIL " + message);
+		failures++;
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * AppleIIGo
+ * Render band test: frames rendered in bands on render workers must be
+ * pixel-identical to frames rendered on the display thread alone
+ * Released under the GPL
+ */
+
+import java.lang.reflect.*;
+import java.util.Arrays;
+import java.util.Random;
+
+public class RenderBandTest {
+	private static final int FRAMES = 3000;
+	private static final int CLOCKS_PER_FRAME = 17030;
+	private static final long SEED = 11;
+
+	private static final int[] SWITCHES = {
+		0xc050, 0xc051, 0xc052, 0xc053, 0xc054, 0xc055, 0xc056, 0xc057,
+		0xc05e, 0xc05f, 0xc00c, 0xc00d, 0xc00e, 0xc00f, 0xc000, 0xc001,
+	};
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		for (int workers = 1; workers <= 3; workers++)
+			compare(workers);
+
+		if (failures != 0) {
+			System.out.println("RenderBandTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("RenderBandTest: ok");
+		System.exit(0);
+	}
+
+	/**
+	 * Runs the same random frames through a single-threaded and a banded display
+	 */
+	private static void compare(int workers) throws Exception {
+		EmAppleII[] apple = new EmAppleII[2];
+		AppleDisplay[] display = new AppleDisplay[2];
+		Random[] random = new Random[2];
+		long[] clock = new long[2];
+
+		Method refreshDisplay = AppleDisplay.class.getDeclaredMethod("refreshDisplay");
+		refreshDisplay.setAccessible(true);
+		Method publishFrame = EmAppleII.class.getDeclaredMethod("publishFrame", long.class);
+		publishFrame.setAccessible(true);
+
+		for (int k = 0; k < 2; k++) {
+			apple[k] = new EmAppleII();
+			display[k] = new AppleDisplay(apple[k]);
+			random[k] = new Random(SEED);
+			if (k == 1)
+				startWorkers(display[k], workers);
+
+			// Random main and aux text, lores and hires pages
+			for (int address = 0x400; address < 0x6000; address++)
+				apple[k].memoryWrite(address, random[k].nextInt(0x100));
+			apple[k].memoryWrite(0xc005, 0);
+			for (int address = 0x400; address < 0x6000; address++)
+				apple[k].memoryWrite(address, random[k].nextInt(0x100));
+			apple[k].memoryWrite(0xc004, 0);
+
+			clock[k] = ((Long) getField(EmAppleII.class, apple[k], "frameClock")).longValue() + 100;
+		}
+
+		int splitFrames = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			for (int k = 0; k < 2; k++) {
+				Random r = random[k];
+
+				for (int i = r.nextInt(4); i > 0; i--)
+					apple[k].memoryWrite(SWITCHES[r.nextInt(SWITCHES.length)], 0);
+
+				boolean isAux = (r.nextInt(4) == 0);
+				if (isAux)
+					apple[k].memoryWrite(0xc005, 0);
+				for (int i = r.nextInt(200); i > 0; i--)
+					apple[k].memoryWrite(0x400 + r.nextInt(0x5c00), r.nextInt(0x100));
+				if (isAux)
+					apple[k].memoryWrite(0xc004, 0);
+
+				// Mid-frame mode switch
+				if (r.nextInt(8) == 0) {
+					apple[k].clock = clock[k] + r.nextInt(CLOCKS_PER_FRAME);
+					apple[k].memoryWrite(SWITCHES[r.nextInt(10)], 0);
+				}
+
+				clock[k] += CLOCKS_PER_FRAME;
+				publishFrame.invoke(apple[k], Long.valueOf(clock[k]));
+				apple[k].clock = clock[k];
+				refreshDisplay.invoke(display[k]);
+			}
+
+			if (((Boolean) getField(AppleDisplay.class, display[0], "isFrameSplit")).booleanValue())
+				splitFrames++;
+
+			int[] single = (int[]) getField(AppleDisplay.class, display[0], "displayImageBuffer");
+			int[] banded = (int[]) getField(AppleDisplay.class, display[1], "displayImageBuffer");
+			if (!Arrays.equals(single, banded)) {
+				fail("frame " + frame + " with " + workers + " workers differs from single-threaded");
+				break;
+			}
+		}
+
+		if (splitFrames == 0)
+			fail("no split frames exercised with " + workers + " workers");
+	}
+
+	/**
+	 * Installs render workers regardless of the processor count
+	 */
+	private static void startWorkers(AppleDisplay display, int workers) throws Exception {
+		Class<?> workerClass = Class.forName("AppleDisplay$RenderWorker");
+		Constructor<?> constructor = workerClass.getDeclaredConstructor(AppleDisplay.class);
+		constructor.setAccessible(true);
+
+		Object renderWorkers = Array.newInstance(workerClass, workers);
+		for (int i = 0; i < workers; i++) {
+			Object worker = constructor.newInstance(display);
+			Array.set(renderWorkers, i, worker);
+			Thread thread = new Thread((Runnable) worker);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		Field field = AppleDisplay.class.getDeclaredField("renderWorkers");
+		field.setAccessible(true);
+		field.set(display, renderWorkers);
+	}
+
+	private static Object getField(Class<?> objectClass, Object object, String name) throws Exception {
+		Field field = objectClass.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(object);
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAIL " + message);
+		failures++;
+	}
+}